@@ -0,0 +1,113 @@
+package com.example.playlist;
+
+import com.example.playlist.model.SongEntry;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parsed songs of one album file, stored as columns: titles in one UTF-8 arena and album, artist
+ * and duration text as shared dictionary terms. Carries the file's modification time and size so
+ * callers can tell whether it is still current. {@link SongEntry} objects are only built on request.
+ */
+final class AlbumColumns {
+    final Path path;
+    final FileTime lastModified;
+    final long size;
+    final StringDictionary.Term album;
+    final int[] trackNumbers;
+    final byte[] titles;
+    final int[] titleEnds;
+    final StringDictionary.Term[] artists;
+    final StringDictionary.Term[] durations;
+    final int[] durationSeconds;
+
+    AlbumColumns(Path path, FileTime lastModified, long size, StringDictionary.Term album, int[] trackNumbers,
+                 byte[] titles, int[] titleEnds, StringDictionary.Term[] artists,
+                 StringDictionary.Term[] durations, int[] durationSeconds) {
+        this.path = path;
+        this.lastModified = lastModified;
+        this.size = size;
+        this.album = album;
+        this.trackNumbers = trackNumbers;
+        this.titles = titles;
+        this.titleEnds = titleEnds;
+        this.artists = artists;
+        this.durations = durations;
+        this.durationSeconds = durationSeconds;
+    }
+
+    int size() {
+        return trackNumbers.length;
+    }
+
+    String title(int song) {
+        int start = song == 0 ? 0 : titleEnds[song - 1];
+        return new String(titles, start, titleEnds[song] - start, StandardCharsets.UTF_8);
+    }
+
+    SongEntry song(int song) {
+        StringDictionary.Term artist = artists[song];
+        return new SongEntry(album.id, album.value, album.searchKey, album.sortKey, trackNumbers[song], title(song),
+                artist.id, artist.value, artist.searchKey, durations[song].value, durationSeconds[song]);
+    }
+
+    void addSongsTo(List<SongEntry> songs) {
+        for (int i = 0; i < size(); i++) {
+            songs.add(song(i));
+        }
+    }
+
+    /** Collects the songs of one album in file order. */
+    static final class Builder {
+        private final StringDictionary.Term album;
+        private int count;
+        private int[] trackNumbers = new int[16];
+        private byte[] titles = new byte[256];
+        private int titleLength;
+        private int[] titleEnds = new int[16];
+        private StringDictionary.Term[] artists = new StringDictionary.Term[16];
+        private StringDictionary.Term[] durations = new StringDictionary.Term[16];
+        private int[] durationSeconds = new int[16];
+
+        Builder(StringDictionary.Term album) {
+            this.album = album;
+        }
+
+        int size() {
+            return count;
+        }
+
+        void add(int trackNumber, String title, StringDictionary.Term artist, StringDictionary.Term duration, int seconds) {
+            if (count == trackNumbers.length) {
+                int capacity = count * 2;
+                trackNumbers = Arrays.copyOf(trackNumbers, capacity);
+                titleEnds = Arrays.copyOf(titleEnds, capacity);
+                artists = Arrays.copyOf(artists, capacity);
+                durations = Arrays.copyOf(durations, capacity);
+                durationSeconds = Arrays.copyOf(durationSeconds, capacity);
+            }
+            byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+            if (titleLength + bytes.length > titles.length) {
+                titles = Arrays.copyOf(titles, Math.max(titleLength + bytes.length, titles.length * 2));
+            }
+            System.arraycopy(bytes, 0, titles, titleLength, bytes.length);
+            titleLength += bytes.length;
+            trackNumbers[count] = trackNumber;
+            titleEnds[count] = titleLength;
+            artists[count] = artist;
+            durations[count] = duration;
+            durationSeconds[count] = seconds;
+            count++;
+        }
+
+        AlbumColumns build(Path path, FileTime lastModified, long size) {
+            return new AlbumColumns(path, lastModified, size, album, Arrays.copyOf(trackNumbers, count),
+                    Arrays.copyOf(titles, titleLength), Arrays.copyOf(titleEnds, count),
+                    Arrays.copyOf(artists, count), Arrays.copyOf(durations, count), Arrays.copyOf(durationSeconds, count));
+        }
+    }
+}
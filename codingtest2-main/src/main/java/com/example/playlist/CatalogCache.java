@@ -0,0 +1,396 @@
+package com.example.playlist;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Keeps one {@link SongCatalog} per resolved playlist directory and recursive flag.
+ * A catalog is reused until the directory watcher reports a change to an album file
+ * below its root; if the directory cannot be watched the catalog is reloaded on every call.
+ * While one caller rebuilds a changed catalog, other callers keep getting the previous one, and
+ * listeners are notified after the rebuild has released its lock.
+ * Only directories that loaded successfully are kept, at most {@code maxEntries} of them; the
+ * least recently used one is dropped beyond that, its directory watches are cancelled and the
+ * service is told to {@linkplain PlaylistService#forget forget} its albums.
+ */
+public class CatalogCache implements Closeable {
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private final PlaylistService service;
+    private final int maxEntries;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+    private Thread watcherThread;
+    private volatile boolean closed;
+
+    public CatalogCache(PlaylistService service) {
+        this(service, DEFAULT_MAX_ENTRIES);
+    }
+
+    public CatalogCache(PlaylistService service, int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        this.service = Objects.requireNonNull(service, "service");
+        this.maxEntries = maxEntries;
+    }
+
+    public SongCatalog get(Path playlistDir, boolean recursive) throws IOException {
+        if (playlistDir == null) {
+            throw new IllegalArgumentException("playlistDir must not be null");
+        }
+        Key key = new Key(playlistDir.toAbsolutePath().normalize(), recursive);
+        while (true) {
+            Entry entry = entries.computeIfAbsent(key, Entry::new);
+            entry.lastUsed = System.nanoTime();
+            SongCatalog catalog = entry.catalog;
+            if (catalog != null && !entry.stale) {
+                return catalog;
+            }
+            if (catalog != null && !entry.reloading.compareAndSet(false, true)) {
+                // another caller is rebuilding it; the previous catalog stays valid until then
+                return catalog;
+            }
+            boolean reloader = catalog != null;
+            boolean added;
+            SongCatalog previous = null;
+            try {
+                synchronized (entry) {
+                    if (entries.get(key) != entry) {
+                        // dropped after a failed first load or evicted while we waited
+                        continue;
+                    }
+                    added = entry.catalog == null;
+                    if (entry.catalog == null || entry.stale) {
+                        entry.stale = false;
+                        if (!entry.watched) {
+                            entry.watched = watch(key);
+                        }
+                        try {
+                            List<AlbumColumns> albums = service.loadAlbums(playlistDir, recursive);
+                            if (entry.catalog == null || !entry.stamps.matches(albums)) {
+                                previous = entry.catalog;
+                                entry.catalog = new SongCatalog(key.root, recursive, versions.incrementAndGet(), albums);
+                                entry.stamps = new Stamps(albums);
+                            }
+                        } catch (IOException | RuntimeException ex) {
+                            entry.stale = true;
+                            if (entry.catalog == null) {
+                                remove(entry);
+                            }
+                            throw ex;
+                        }
+                        if (!entry.watched) {
+                            entry.stale = true;
+                        }
+                    }
+                    catalog = entry.catalog;
+                }
+                // outside the entry lock so other callers are not held up by listeners; still
+                // before the reload flag clears, so consecutive changes are reported in order
+                if (previous != null) {
+                    for (Listener listener : listeners) {
+                        listener.catalogChanged(previous, catalog);
+                    }
+                }
+            } finally {
+                if (reloader) {
+                    entry.reloading.set(false);
+                }
+            }
+            if (added) {
+                evictLeastRecentlyUsed();
+            }
+            return catalog;
+        }
+    }
+
+    /** Identifies this cache instance, so catalog versions from an earlier process are never mistaken for current ones. */
+    public String getEpoch() {
+        return epoch;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(Objects.requireNonNull(listener, "listener"));
+    }
+
+    public void invalidateAll() {
+        for (Entry entry : entries.values()) {
+            entry.stale = true;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (watchService != null) {
+            watchService.close();
+        }
+        if (watcherThread != null) {
+            watcherThread.interrupt();
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        while (entries.size() > maxEntries) {
+            Entry oldest = null;
+            for (Entry entry : entries.values()) {
+                if (entry.catalog != null && (oldest == null || entry.lastUsed < oldest.lastUsed)) {
+                    oldest = entry;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            remove(oldest);
+        }
+    }
+
+    private void remove(Entry entry) {
+        if (entries.remove(entry.key, entry)) {
+            unwatch(entry.key);
+            service.forget(entry.key.root, entry.key.recursive);
+        }
+    }
+
+    private synchronized boolean watch(Key key) {
+        if (closed) {
+            return false;
+        }
+        try {
+            WatchService ws = watchService();
+            if (key.recursive) {
+                registerTree(ws, key.root);
+            } else {
+                register(ws, key.root);
+            }
+            return true;
+        } catch (IOException | UnsupportedOperationException ex) {
+            return false;
+        }
+    }
+
+    /** Cancels the watches on directories below {@code removed} that no cached entry covers any more. */
+    private synchronized void unwatch(Key removed) {
+        Iterator<Map.Entry<WatchKey, Path>> it = watchedDirs.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<WatchKey, Path> watched = it.next();
+            Path dir = watched.getValue();
+            if (removed.covers(dir) && entries.keySet().stream().noneMatch(key -> key.covers(dir))) {
+                watched.getKey().cancel();
+                it.remove();
+            }
+        }
+    }
+
+    private synchronized WatchService watchService() throws IOException {
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+            watcherThread = new Thread(this::processEvents, "playlist-watcher");
+            watcherThread.setDaemon(true);
+            watcherThread.start();
+        }
+        return watchService;
+    }
+
+    private void register(WatchService ws, Path dir) throws IOException {
+        WatchKey watchKey = dir.register(ws, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        watchedDirs.put(watchKey, dir);
+    }
+
+    private void registerTree(WatchService ws, Path root) throws IOException {
+        List<Path> dirs;
+        try (Stream<Path> stream = Files.walk(root)) {
+            dirs = stream.filter(Files::isDirectory).collect(Collectors.toList());
+        }
+        for (Path dir : dirs) {
+            register(ws, dir);
+        }
+    }
+
+    private void processEvents() {
+        while (!closed) {
+            WatchKey watchKey;
+            try {
+                watchKey = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+            Path dir = watchedDirs.get(watchKey);
+            if (dir != null) {
+                for (WatchEvent<?> event : watchKey.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        invalidate(dir);
+                        continue;
+                    }
+                    Path child = dir.resolve((Path) event.context());
+                    if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+                        registerNewDirectory(child);
+                    }
+                    if (isAlbumChange(child)) {
+                        invalidate(dir);
+                    }
+                }
+            }
+            if (!watchKey.reset()) {
+                watchedDirs.remove(watchKey);
+                if (dir != null) {
+                    forgetWatch(dir);
+                }
+            }
+        }
+    }
+
+    private synchronized void registerNewDirectory(Path dir) {
+        boolean covered = entries.keySet().stream().anyMatch(key -> key.recursive && dir.startsWith(key.root));
+        if (!covered) {
+            return;
+        }
+        try {
+            registerTree(watchService, dir);
+        } catch (IOException | ClosedWatchServiceException ex) {
+            invalidate(dir);
+        }
+    }
+
+    private boolean isAlbumChange(Path child) {
+        String name = child.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".tsv") || !Files.isRegularFile(child);
+    }
+
+    private void invalidate(Path dir) {
+        for (Entry entry : entries.values()) {
+            if (entry.key.covers(dir)) {
+                markStale(entry);
+            }
+        }
+    }
+
+    private void forgetWatch(Path dir) {
+        for (Entry entry : entries.values()) {
+            if (entry.key.root.equals(dir)) {
+                entry.watched = false;
+            }
+            if (entry.key.covers(dir)) {
+                markStale(entry);
+            }
+        }
+    }
+
+    private void markStale(Entry entry) {
+        entry.stale = true;
+        for (Listener listener : listeners) {
+            listener.catalogInvalidated(entry.key.root, entry.key.recursive);
+        }
+    }
+
+    public interface Listener {
+        /** Called after {@code current} replaced {@code previous} for the same playlist directory and recursive flag. */
+        void catalogChanged(SongCatalog previous, SongCatalog current);
+
+        /** Called from the watcher thread when files below {@code root} changed; the next {@link #get} reloads it. */
+        default void catalogInvalidated(Path root, boolean recursive) {
+        }
+    }
+
+    private static final class Key {
+        final Path root;
+        final boolean recursive;
+
+        Key(Path root, boolean recursive) {
+            this.root = root;
+            this.recursive = recursive;
+        }
+
+        boolean covers(Path dir) {
+            return recursive ? dir.startsWith(root) : dir.equals(root);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return recursive == other.recursive && root.equals(other.root);
+        }
+
+        @Override
+        public int hashCode() {
+            return root.hashCode() * 31 + (recursive ? 1 : 0);
+        }
+    }
+
+    /** Path, modification time and size of each album file a catalog was built from, in load order. */
+    private static final class Stamps {
+        final Path[] paths;
+        final FileTime[] lastModified;
+        final long[] sizes;
+
+        Stamps(List<AlbumColumns> albums) {
+            paths = new Path[albums.size()];
+            lastModified = new FileTime[albums.size()];
+            sizes = new long[albums.size()];
+            for (int i = 0; i < paths.length; i++) {
+                AlbumColumns album = albums.get(i);
+                paths[i] = album.path;
+                lastModified[i] = album.lastModified;
+                sizes[i] = album.size;
+            }
+        }
+
+        boolean matches(List<AlbumColumns> albums) {
+            if (albums.size() != paths.length) {
+                return false;
+            }
+            for (int i = 0; i < paths.length; i++) {
+                AlbumColumns album = albums.get(i);
+                if (!paths[i].equals(album.path) || !lastModified[i].equals(album.lastModified) || sizes[i] != album.size) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Entry {
+        final Key key;
+        volatile SongCatalog catalog;
+        Stamps stamps;
+        volatile boolean stale = true;
+        final AtomicBoolean reloading = new AtomicBoolean();
+        volatile boolean watched;
+        volatile long lastUsed;
+
+        Entry(Key key) {
+            this.key = key;
+        }
+    }
+}
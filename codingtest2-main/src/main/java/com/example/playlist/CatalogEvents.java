@@ -0,0 +1,306 @@
+package com.example.playlist;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns catalog replacements into album-level change events for subscribers of one playlist
+ * directory. While a directory has subscribers, watcher invalidations trigger a reload after a
+ * short debounce instead of waiting for the next request. Each event stream is written by its own
+ * writer thread rather than by the request that opened it, so connected clients do not hold
+ * request threads and a client that stops reading only stalls its own stream. The number of open
+ * streams is capped, a write that does not finish within {@value #WRITE_TIMEOUT_SECONDS} seconds
+ * closes the stream, and so does a queue that fills up because the client fell behind.
+ */
+final class CatalogEvents implements CatalogCache.Listener {
+    private static final long RELOAD_DELAY_MILLIS = 200;
+    private static final long HEARTBEAT_SECONDS = 15;
+    private static final long WRITE_TIMEOUT_SECONDS = 10;
+    private static final int QUEUE_CAPACITY = 256;
+    private static final byte[] EMPTY_ARRAY = {'[', ']'};
+
+    private final CatalogCache catalogs;
+    private final int maxSubscribers;
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final Map<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    private final Set<Subscription> writing = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingReloads = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "playlist-events");
+        t.setDaemon(true);
+        return t;
+    });
+
+    CatalogEvents(CatalogCache catalogs, int maxSubscribers) {
+        this.catalogs = catalogs;
+        this.maxSubscribers = maxSubscribers;
+        reloader.scheduleWithFixedDelay(this::expireWrites, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registers a subscriber, or returns {@code null} if the cap on open streams is reached. Events
+     * are queued from now on but only written once the stream is {@linkplain #start started}.
+     */
+    Subscription subscribe(Path playlistDir, boolean recursive) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            return null;
+        }
+        Path root = playlistDir.toAbsolutePath().normalize();
+        Subscription subscription = new Subscription(root, recursive);
+        subscriptions.computeIfAbsent(key(root, recursive), k -> new CopyOnWriteArraySet<>()).add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Starts a writer thread for the response stream of {@code subscription}, which sends the
+     * {@code ready} event and then every event newer than {@code version}. The stream is closed
+     * when a write fails or times out.
+     */
+    void start(Subscription subscription, OutputStream out, long version) {
+        synchronized (subscription) {
+            if (!subscription.closed) {
+                subscription.version = version;
+                subscription.out = out;
+                subscription.writer = new Thread(() -> write(subscription), "playlist-events-writer");
+                subscription.writer.setDaemon(true);
+                subscription.writer.start();
+                return;
+            }
+        }
+        // dropped before it started; its slot was already released
+        closeQuietly(out);
+    }
+
+    /** Closes the stream of {@code subscription}; safe to call more than once and from any thread. */
+    void unsubscribe(Subscription subscription) {
+        Thread writer;
+        synchronized (subscription) {
+            if (subscription.closed) {
+                return;
+            }
+            subscription.closed = true;
+            writer = subscription.writer;
+        }
+        remove(subscription);
+        if (writer != null) {
+            // the writer closes the stream and releases the slot on its way out
+            writer.interrupt();
+        } else {
+            subscriberCount.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void catalogInvalidated(Path root, boolean recursive) {
+        String key = key(root, recursive);
+        if (subscriptions.containsKey(key) && pendingReloads.add(key)) {
+            reloader.schedule(() -> reload(key, root, recursive), RELOAD_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void catalogChanged(SongCatalog previous, SongCatalog current) {
+        Set<Subscription> subscribers = subscriptions.get(key(current.getPlaylistDir(), current.isRecursive()));
+        if (subscribers == null || subscribers.isEmpty()) {
+            return;
+        }
+        List<Event> events = diff(previous, current);
+        for (Subscription subscription : subscribers) {
+            for (Event event : events) {
+                if (!subscription.queue.offer(event)) {
+                    // fell too far behind; the client reconnects and reloads after the ready event
+                    unsubscribe(subscription);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void write(Subscription subscription) {
+        writing.add(subscription);
+        try {
+            subscription.writeEvents();
+        } catch (IOException | InterruptedException | RuntimeException ex) {
+            // client gone, too slow, or unsubscribed
+        } finally {
+            synchronized (subscription) {
+                subscription.closed = true;
+            }
+            remove(subscription);
+            Thread.interrupted();
+            try {
+                subscription.timed(subscription.out::close);
+            } catch (IOException | RuntimeException ex) {
+                // client already gone
+            }
+            writing.remove(subscription);
+            subscriberCount.decrementAndGet();
+        }
+    }
+
+    /** Interrupts writers stuck in one write for too long, which closes their socket. */
+    private void expireWrites() {
+        long now = System.nanoTime();
+        for (Subscription subscription : writing) {
+            long started = subscription.writeStarted;
+            if (started != 0 && now - started > TimeUnit.SECONDS.toNanos(WRITE_TIMEOUT_SECONDS)) {
+                subscription.writer.interrupt();
+            }
+        }
+    }
+
+    private void remove(Subscription subscription) {
+        subscriptions.computeIfPresent(key(subscription.root, subscription.recursive), (k, set) -> {
+            set.remove(subscription);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static void closeQuietly(OutputStream out) {
+        try {
+            out.close();
+        } catch (IOException ex) {
+            // client already gone
+        }
+    }
+
+    private void reload(String key, Path root, boolean recursive) {
+        pendingReloads.remove(key);
+        if (!subscriptions.containsKey(key)) {
+            return;
+        }
+        try {
+            catalogs.get(root, recursive);
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("Reload of " + root + " failed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Encodes only the albums whose files changed between the two catalogs; a file that was
+     * rewritten with the same songs still yields no event.
+     */
+    private static List<Event> diff(SongCatalog previous, SongCatalog current) {
+        Set<String> changed = current.changedAlbums(previous);
+        if (changed.isEmpty()) {
+            return List.of();
+        }
+        Map<String, byte[]> before = previous.albumJson(changed);
+        Map<String, byte[]> after = current.albumJson(changed);
+        long version = current.getVersion();
+        List<Event> events = new ArrayList<>();
+        for (String album : before.keySet()) {
+            if (!after.containsKey(album)) {
+                events.add(new Event(version, "removed", album, EMPTY_ARRAY));
+            }
+        }
+        for (Map.Entry<String, byte[]> e : after.entrySet()) {
+            byte[] old = before.get(e.getKey());
+            if (old == null) {
+                events.add(new Event(version, "added", e.getKey(), e.getValue()));
+            } else if (!Arrays.equals(old, e.getValue())) {
+                events.add(new Event(version, "changed", e.getKey(), e.getValue()));
+            }
+        }
+        return events;
+    }
+
+    private static String key(Path root, boolean recursive) {
+        return root + "\n" + recursive;
+    }
+
+    static final class Event {
+        final long version;
+        final String type;
+        final String album;
+        final byte[] songsJson;
+
+        Event(long version, String type, String album, byte[] songsJson) {
+            this.version = version;
+            this.type = type;
+            this.album = album;
+            this.songsJson = songsJson;
+        }
+
+        String toJson() {
+            return "{\"version\":" + version
+                    + ",\"type\":\"" + type
+                    + "\",\"album\":\"" + Json.escape(album)
+                    + "\",\"songs\":" + new String(songsJson, StandardCharsets.UTF_8) + "}";
+        }
+    }
+
+    /**
+     * Pending events for one connected client. The queue is bounded; a client that falls more than
+     * its capacity behind is dropped.
+     */
+    static final class Subscription {
+        private final Path root;
+        private final boolean recursive;
+        private final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private volatile long writeStarted;
+        private boolean closed;
+        private Thread writer;
+        private OutputStream out;
+        private long version;
+
+        Subscription(Path root, boolean recursive) {
+            this.root = root;
+            this.recursive = recursive;
+        }
+
+        /** Writes the ready event, then pending events as they arrive and a comment when idle. */
+        private void writeEvents() throws IOException, InterruptedException {
+            StringBuilder text = new StringBuilder();
+            text.append("retry: 3000\nevent: ready\ndata: {\"version\":").append(version).append("}\n\n");
+            while (true) {
+                if (text.length() > 0) {
+                    byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+                    text.setLength(0);
+                    timed(() -> {
+                        out.write(bytes);
+                        out.flush();
+                    });
+                }
+                Event event = queue.poll(HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                if (event == null) {
+                    text.append(": keep-alive\n\n");
+                }
+                for (; event != null; event = queue.poll()) {
+                    if (event.version > version) {
+                        text.append("id: ").append(event.version).append("\nevent: album\ndata: ").append(event.toJson()).append("\n\n");
+                    }
+                }
+            }
+        }
+
+        private void timed(Write write) throws IOException {
+            writeStarted = System.nanoTime();
+            try {
+                write.run();
+            } finally {
+                writeStarted = 0;
+            }
+        }
+    }
+
+    private interface Write {
+        void run() throws IOException;
+    }
+}
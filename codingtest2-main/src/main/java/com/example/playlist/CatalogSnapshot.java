@@ -0,0 +1,314 @@
+package com.example.playlist;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Binary image of parsed album files, read back through a read-only memory mapping. Layout, all
+ * integers big-endian:
+ * <pre>
+ * header   long magic "PLSNAP01", int formatVersion, int stringCount, int albumCount, int songCount
+ * strings  int[stringCount] end offsets, then the UTF-8 bytes of every string
+ * albums   {int path, int name, long mtimeNanos, long size, int firstSong, int songCount}, sorted by path
+ * songs    {int track, int title, int artist, int duration, int durationSeconds}
+ * </pre>
+ * Strings are referenced by index. Album lookups binary-search the mapped table, and songs are
+ * only copied out when their album is requested with a matching modification time and size.
+ * {@link #FORMAT_VERSION} changes whenever this layout or the way album files are parsed changes,
+ * and a file written with another version is treated as if there were no snapshot.
+ */
+final class CatalogSnapshot {
+    private static final long MAGIC = 0x504C534E41503031L;
+    static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = 8 + 4 * 4;
+    private static final int ALBUM_BYTES = 4 + 4 + 8 + 8 + 4 + 4;
+    private static final int SONG_BYTES = 5 * 4;
+
+    private final ByteBuffer buffer;
+    private final int stringCount;
+    private final int albumCount;
+    private final int stringBytes;
+    private final int albumTable;
+    private final int songTable;
+    private final StringDictionary.Term[] albumTerms;
+    private final StringDictionary.Term[] artistTerms;
+    private final StringDictionary.Term[] durationTerms;
+    private volatile List<Path> paths;
+
+    private CatalogSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_BYTES || buffer.getLong(0) != MAGIC) {
+            throw new IOException("not a playlist snapshot");
+        }
+        this.stringCount = buffer.getInt(12);
+        this.albumCount = buffer.getInt(16);
+        int songCount = buffer.getInt(20);
+        if (stringCount < 0 || albumCount < 0 || songCount < 0 || HEADER_BYTES + (long) stringCount * 4 > buffer.limit()) {
+            throw new IOException("corrupt snapshot header");
+        }
+        this.stringBytes = HEADER_BYTES + stringCount * 4;
+        int stringsEnd = stringCount == 0 ? 0 : buffer.getInt(stringBytes - 4);
+        this.albumTable = stringBytes + stringsEnd;
+        this.songTable = albumTable + albumCount * ALBUM_BYTES;
+        if (stringsEnd < 0 || (long) stringBytes + stringsEnd + (long) albumCount * ALBUM_BYTES + (long) songCount * SONG_BYTES != buffer.limit()) {
+            throw new IOException("truncated snapshot");
+        }
+        this.albumTerms = new StringDictionary.Term[stringCount];
+        this.artistTerms = new StringDictionary.Term[stringCount];
+        this.durationTerms = new StringDictionary.Term[stringCount];
+    }
+
+    /**
+     * Maps {@code file}, or returns {@code null} if it was written with another
+     * {@linkplain #FORMAT_VERSION format version}.
+     */
+    static CatalogSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("snapshot too large: " + size + " bytes");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size >= HEADER_BYTES && buffer.getLong(0) == MAGIC && buffer.getInt(8) != FORMAT_VERSION) {
+                return null;
+            }
+            return new CatalogSnapshot(buffer);
+        }
+    }
+
+    /**
+     * Returns the album stored for {@code albumFile}, or {@code null} if the snapshot has no entry
+     * for it or the file's modification time or size no longer match. Titles are copied as UTF-8
+     * bytes; names and durations are interned into the given dictionaries.
+     */
+    AlbumColumns album(Path albumFile, FileTime lastModified, long size,
+                       StringDictionary albums, StringDictionary artists, StringDictionary durations) {
+        int album = find(albumFile.toString());
+        if (album < 0) {
+            return null;
+        }
+        int record = albumTable + album * ALBUM_BYTES;
+        if (buffer.getLong(record + 8) != lastModified.to(TimeUnit.NANOSECONDS) || buffer.getLong(record + 16) != size) {
+            return null;
+        }
+        return read(record, albumFile, lastModified, size, albums, artists, durations);
+    }
+
+    /** Forgets the dictionary terms handed out so far, after the service dropped unused ones. */
+    void clearTerms() {
+        Arrays.fill(albumTerms, null);
+        Arrays.fill(artistTerms, null);
+        Arrays.fill(durationTerms, null);
+    }
+
+    /** Returns the album file paths stored in the snapshot, in path order. */
+    List<Path> paths() {
+        List<Path> result = paths;
+        if (result == null) {
+            result = new ArrayList<>(albumCount);
+            for (int album = 0; album < albumCount; album++) {
+                result.add(Paths.get(string(buffer.getInt(albumTable + album * ALBUM_BYTES))));
+            }
+            paths = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the stored albums whose path passes {@code filter}, with the modification time and size
+     * recorded when they were written. Used to carry records forward when the snapshot is rewritten.
+     */
+    List<AlbumColumns> albums(Predicate<Path> filter, StringDictionary albums, StringDictionary artists,
+                              StringDictionary durations) {
+        List<Path> albumFiles = paths();
+        List<AlbumColumns> result = new ArrayList<>();
+        for (int album = 0; album < albumCount; album++) {
+            Path albumFile = albumFiles.get(album);
+            if (filter.test(albumFile)) {
+                int record = albumTable + album * ALBUM_BYTES;
+                FileTime lastModified = FileTime.from(buffer.getLong(record + 8), TimeUnit.NANOSECONDS);
+                result.add(read(record, albumFile, lastModified, buffer.getLong(record + 16), albums, artists, durations));
+            }
+        }
+        return result;
+    }
+
+    private AlbumColumns read(int record, Path albumFile, FileTime lastModified, long size,
+                              StringDictionary albums, StringDictionary artists, StringDictionary durations) {
+        StringDictionary.Term albumName = term(buffer.getInt(record + 4), albums, albumTerms);
+        int first = buffer.getInt(record + 24);
+        int count = buffer.getInt(record + 28);
+        int[] trackNumbers = new int[count];
+        int[] titleEnds = new int[count];
+        StringDictionary.Term[] songArtists = new StringDictionary.Term[count];
+        StringDictionary.Term[] songDurations = new StringDictionary.Term[count];
+        int[] durationSeconds = new int[count];
+        int titleBytes = 0;
+        for (int i = 0; i < count; i++) {
+            int song = songTable + (first + i) * SONG_BYTES;
+            trackNumbers[i] = buffer.getInt(song);
+            titleBytes += stringLength(buffer.getInt(song + 4));
+            titleEnds[i] = titleBytes;
+            songArtists[i] = term(buffer.getInt(song + 8), artists, artistTerms);
+            songDurations[i] = term(buffer.getInt(song + 12), durations, durationTerms);
+            durationSeconds[i] = buffer.getInt(song + 16);
+        }
+        byte[] titles = new byte[titleBytes];
+        for (int i = 0; i < count; i++) {
+            int title = buffer.getInt(songTable + (first + i) * SONG_BYTES + 4);
+            buffer.get(stringBytes + stringStart(title), titles, i == 0 ? 0 : titleEnds[i - 1], stringLength(title));
+        }
+        return new AlbumColumns(albumFile, lastModified, size, albumName, trackNumbers, titles, titleEnds,
+                songArtists, songDurations, durationSeconds);
+    }
+
+    private int find(String path) {
+        int low = 0;
+        int high = albumCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = string(buffer.getInt(albumTable + mid * ALBUM_BYTES)).compareTo(path);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private StringDictionary.Term term(int index, StringDictionary dictionary, StringDictionary.Term[] terms) {
+        StringDictionary.Term term = terms[index];
+        if (term == null) {
+            term = dictionary.intern(string(index));
+            terms[index] = term;
+        }
+        return term;
+    }
+
+    private String string(int index) {
+        byte[] bytes = new byte[stringLength(index)];
+        buffer.get(stringBytes + stringStart(index), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int stringStart(int index) {
+        return index == 0 ? 0 : buffer.getInt(HEADER_BYTES + (index - 1) * 4);
+    }
+
+    private int stringLength(int index) {
+        return buffer.getInt(HEADER_BYTES + index * 4) - stringStart(index);
+    }
+
+    /**
+     * Writes {@code albums} to a temporary file next to {@code file} and moves it into place. The new
+     * file keeps the permissions of the one it replaces, or gets {@code rw-r--r--} if there was none.
+     */
+    static void write(Path file, List<AlbumColumns> albums) throws IOException {
+        List<AlbumColumns> sorted = new ArrayList<>(albums);
+        sorted.sort(Comparator.comparing(album -> album.path.toString()));
+
+        Map<String, Integer> index = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int songCount = 0;
+        for (AlbumColumns album : sorted) {
+            intern(album.path.toString(), index, strings);
+            intern(album.album.value, index, strings);
+            for (int i = 0; i < album.size(); i++) {
+                intern(album.title(i), index, strings);
+                intern(album.artists[i].value, index, strings);
+                intern(album.durations[i].value, index, strings);
+            }
+            songCount += album.size();
+        }
+
+        Path dir = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            copyPermissions(file, temp);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+                out.writeLong(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(strings.size());
+                out.writeInt(sorted.size());
+                out.writeInt(songCount);
+                int end = 0;
+                for (byte[] bytes : strings) {
+                    end += bytes.length;
+                    out.writeInt(end);
+                }
+                for (byte[] bytes : strings) {
+                    out.write(bytes);
+                }
+                int firstSong = 0;
+                for (AlbumColumns album : sorted) {
+                    out.writeInt(index.get(album.path.toString()));
+                    out.writeInt(index.get(album.album.value));
+                    out.writeLong(album.lastModified.to(TimeUnit.NANOSECONDS));
+                    out.writeLong(album.size);
+                    out.writeInt(firstSong);
+                    out.writeInt(album.size());
+                    firstSong += album.size();
+                }
+                for (AlbumColumns album : sorted) {
+                    for (int i = 0; i < album.size(); i++) {
+                        out.writeInt(album.trackNumbers[i]);
+                        out.writeInt(index.get(album.title(i)));
+                        out.writeInt(index.get(album.artists[i].value));
+                        out.writeInt(index.get(album.durations[i].value));
+                        out.writeInt(album.durationSeconds[i]);
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /** Temporary files are created {@code rw-------}; give {@code temp} the mode {@code file} should keep. */
+    private static void copyPermissions(Path file, Path temp) throws IOException {
+        if (Files.getFileAttributeView(temp, PosixFileAttributeView.class) == null) {
+            return;
+        }
+        Set<PosixFilePermission> permissions;
+        try {
+            permissions = Files.getPosixFilePermissions(file);
+        } catch (NoSuchFileException ex) {
+            permissions = PosixFilePermissions.fromString("rw-r--r--");
+        }
+        Files.setPosixFilePermissions(temp, permissions);
+    }
+
+    private static void intern(String value, Map<String, Integer> index, List<byte[]> strings) {
+        if (!index.containsKey(value)) {
+            index.put(value, strings.size());
+            strings.add(value.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.playlist;
+
+import com.example.playlist.model.SongEntry;
+
+import java.io.IOException;
+
+final class Json {
+    private Json() {
+    }
+
+    static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        try {
+            appendEscaped(sb, s);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    static void appendEscaped(Appendable out, String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\b': out.append("\\b"); break;
+                case '\f': out.append("\\f"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int)c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+    }
+
+    static void appendSong(StringBuilder sb, SongEntry s) {
+        try {
+            sb.append("{\"albumName\":\"");
+            appendEscaped(sb, s.getAlbumName());
+            sb.append("\",\"trackNumber\":").append(s.getTrackNumber());
+            sb.append(",\"title\":\"");
+            appendEscaped(sb, s.getTitle());
+            sb.append("\",\"artist\":\"");
+            appendEscaped(sb, s.getArtist());
+            sb.append("\",\"duration\":\"");
+            appendEscaped(sb, s.getDuration());
+            sb.append("\"}");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,729 @@
+package com.example.playlist;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Selector-based HTTP/1.1 front end serving the built-in page, {@code /api/songs}, the stats and
+ * facets summaries and the change event stream with the same semantics as the
+ * {@code com.sun.net.httpserver} handlers. One thread accepts, reads and writes; each parsed
+ * request is answered on the executor into per-connection buffers, which the selector thread sends
+ * with a gathering write. Bodies up to {@value #DIRECT_BODY_BYTES} bytes are built in a direct
+ * buffer the connection keeps; larger ones go to heap buffers and are written in slices of that
+ * size. Connections handle one request at a time; an event stream leaves the selector and is
+ * handed to {@link CatalogEvents} as a blocking channel.
+ */
+final class NioServer implements Runnable {
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final int DIRECT_BODY_BYTES = 256 * 1024;
+    private static final ByteBuffer INDEX_HTML = direct(WebServer.INDEX_HTML_BYTES);
+    private static final ByteBuffer INDEX_HTML_GZIP = direct(WebServer.INDEX_HTML_GZIP);
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final PlaylistService service;
+    private final CatalogCache catalogs;
+    private final ResponseCache responses;
+    private final CatalogEvents events;
+    private final Executor executor;
+    private final int maxConcurrent;
+    private final String retryAfter;
+    private final long idleTimeoutMillis;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Queue<Connection> completed = new ConcurrentLinkedQueue<>();
+    private final List<Connection> handOffs = new ArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private long lastIdleCheck;
+
+    NioServer(InetSocketAddress address, int backlog, PlaylistService service, CatalogCache catalogs,
+              ResponseCache responses, CatalogEvents events, Executor executor, int maxConcurrent,
+              long idleTimeoutMillis) throws IOException {
+        this.service = service;
+        this.catalogs = catalogs;
+        this.responses = responses;
+        this.events = events;
+        this.executor = executor != null ? executor : Runnable::run;
+        this.maxConcurrent = maxConcurrent;
+        this.retryAfter = Integer.toString(WebServer.getIntEnv("HTTP_RETRY_AFTER", 1, 0));
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address, backlog);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    void start() {
+        new Thread(this, "nio-selector").start();
+    }
+
+    @Override
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                selector.select(1000);
+                for (Connection conn : handOffs) {
+                    startEvents(conn);
+                }
+                handOffs.clear();
+                for (Connection done = completed.poll(); done != null; done = completed.poll()) {
+                    Connection conn = done;
+                    guarded(conn, () -> write(conn));
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection conn = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        guarded(conn, () -> read(conn));
+                    } else if (key.isWritable()) {
+                        guarded(conn, () -> write(conn));
+                    }
+                }
+                closeIdle();
+            } catch (IOException ex) {
+                System.err.println("Selector loop: " + ex.getMessage());
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+        }
+    }
+
+    private void read(Connection conn) throws IOException {
+        if (conn.channel.read(conn.in) < 0) {
+            close(conn);
+            return;
+        }
+        conn.lastActive = System.currentTimeMillis();
+        dispatch(conn);
+    }
+
+    private void dispatch(Connection conn) throws IOException {
+        Request request;
+        try {
+            request = Request.parse(conn.in);
+        } catch (IllegalArgumentException ex) {
+            conn.keepAlive = false;
+            conn.key.interestOps(0);
+            error(conn, 400, ex.getMessage());
+            write(conn);
+            return;
+        }
+        if (request == null) {
+            if (!conn.in.hasRemaining()) {
+                conn.keepAlive = false;
+                conn.key.interestOps(0);
+                error(conn, 431, "Request Header Fields Too Large");
+                write(conn);
+            }
+            return;
+        }
+        conn.key.interestOps(0);
+        conn.keepAlive = request.keepAlive;
+        // the permit is taken here so requests past the cap never wait in the executor's queue
+        if (maxConcurrent > 0 && inFlight.incrementAndGet() > maxConcurrent) {
+            inFlight.decrementAndGet();
+            busy(conn);
+            write(conn);
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    handle(conn, request);
+                } catch (RuntimeException ex) {
+                    conn.keepAlive = false;
+                    error(conn, 500, String.valueOf(ex.getMessage()));
+                } finally {
+                    if (maxConcurrent > 0) {
+                        inFlight.decrementAndGet();
+                    }
+                }
+                completed.add(conn);
+                selector.wakeup();
+            });
+        } catch (RejectedExecutionException ex) {
+            if (maxConcurrent > 0) {
+                inFlight.decrementAndGet();
+            }
+            busy(conn);
+            write(conn);
+        }
+    }
+
+    private void write(Connection conn) throws IOException {
+        while (conn.writeSlice() > 0 && conn.hasRemaining()) {
+            // keep going while the socket takes whole slices
+        }
+        if (conn.hasRemaining()) {
+            conn.key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        conn.lastActive = System.currentTimeMillis();
+        if (conn.subscription != null) {
+            // the channel can only be made blocking once the selector has dropped its key
+            conn.key.cancel();
+            handOffs.add(conn);
+            selector.wakeup();
+            return;
+        }
+        if (!conn.keepAlive) {
+            close(conn);
+            return;
+        }
+        conn.release();
+        conn.key.interestOps(SelectionKey.OP_READ);
+        dispatch(conn);
+    }
+
+    private void guarded(Connection conn, IoAction action) {
+        try {
+            action.run();
+        } catch (IOException | RuntimeException ex) {
+            close(conn);
+        }
+    }
+
+    private void closeIdle() {
+        long now = System.currentTimeMillis();
+        if (now - lastIdleCheck < 1000) {
+            return;
+        }
+        lastIdleCheck = now;
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection && key.isValid() && key.interestOps() == SelectionKey.OP_READ) {
+                Connection conn = (Connection) attachment;
+                if (now - conn.lastActive > idleTimeoutMillis) {
+                    close(conn);
+                }
+            }
+        }
+    }
+
+    private void startEvents(Connection conn) {
+        CatalogEvents.Subscription subscription = conn.subscription;
+        conn.subscription = null;
+        try {
+            conn.channel.configureBlocking(true);
+        } catch (IOException | RuntimeException ex) {
+            events.unsubscribe(subscription);
+            close(conn);
+            return;
+        }
+        events.start(subscription, Channels.newOutputStream(conn.channel), conn.streamVersion);
+    }
+
+    private void close(Connection conn) {
+        if (conn.subscription != null) {
+            events.unsubscribe(conn.subscription);
+            conn.subscription = null;
+        }
+        conn.key.cancel();
+        try {
+            conn.channel.close();
+        } catch (IOException ignored) {
+            // already gone
+        }
+    }
+
+    private void busy(Connection conn) {
+        conn.begin(503);
+        conn.header("Retry-After", retryAfter);
+        conn.finish(conn.copy(WebServer.jsonError("Server busy").getBytes(StandardCharsets.UTF_8)), JSON);
+    }
+
+    private void handle(Connection conn, Request request) {
+        if (request.path.equals("/api/songs")) {
+            songs(conn, request);
+        } else if (request.path.equals("/api/songs/events")) {
+            events(conn, request);
+        } else if (request.path.equals("/api/stats")) {
+            summary(conn, request, "stats", SongCatalog::statsJson, SongCatalog::statsJsonGzip);
+        } else if (request.path.equals("/api/facets")) {
+            summary(conn, request, "facets", SongCatalog::facetsJson, SongCatalog::facetsJsonGzip);
+        } else if (request.path.startsWith("/api/")) {
+            error(conn, 404, "Not Found");
+        } else if (!"GET".equals(request.method)) {
+            conn.begin(405);
+            conn.finish(conn.copy("Method Not Allowed".getBytes(StandardCharsets.UTF_8)), "text/plain; charset=utf-8");
+        } else {
+            conn.begin(200);
+            boolean gzip = WebServer.acceptsGzip(request.headers.get("accept-encoding"));
+            conn.header("Vary", "Accept-Encoding");
+            if (gzip) {
+                conn.header("Content-Encoding", "gzip");
+            }
+            conn.finish((gzip ? INDEX_HTML_GZIP : INDEX_HTML).duplicate(), "text/html; charset=utf-8");
+        }
+    }
+
+    /** Answers the response head of an event stream; the selector hands the connection over once it is sent. */
+    private void events(Connection conn, Request request) {
+        if (!"GET".equals(request.method)) {
+            error(conn, 405, "Method Not Allowed");
+            return;
+        }
+        Map<String, String> q = WebServer.parseQuery(request.rawQuery);
+        Path playlistDir = service.resolvePlaylistDir(q.get("playlist"));
+        boolean recursive = WebServer.parseBool(q.get("recursive"));
+        CatalogEvents.Subscription subscription = events.subscribe(playlistDir, recursive);
+        if (subscription == null) {
+            conn.begin(503);
+            conn.header("Retry-After", retryAfter);
+            conn.finish(conn.copy(WebServer.jsonError("Too many event streams").getBytes(StandardCharsets.UTF_8)), JSON);
+            return;
+        }
+        SongCatalog catalog;
+        try {
+            catalog = catalogs.get(playlistDir, recursive);
+        } catch (IOException | RuntimeException ex) {
+            events.unsubscribe(subscription);
+            error(conn, 500, ex.getMessage());
+            return;
+        }
+        conn.keepAlive = false;
+        conn.begin(200);
+        conn.header("Content-Type", "text/event-stream; charset=utf-8");
+        conn.header("Cache-Control", "no-cache");
+        conn.finish(null, null);
+        conn.streamVersion = catalog.getVersion();
+        conn.subscription = subscription;
+    }
+
+    private void summary(Connection conn, Request request, String name, Function<SongCatalog, byte[]> summary,
+                         Function<SongCatalog, byte[]> compressed) {
+        if (!"GET".equals(request.method)) {
+            error(conn, 405, "Method Not Allowed");
+            return;
+        }
+        Map<String, String> q = WebServer.parseQuery(request.rawQuery);
+        Path playlistDir = service.resolvePlaylistDir(q.get("playlist"));
+        boolean recursive = WebServer.parseBool(q.get("recursive"));
+        SongCatalog catalog;
+        try {
+            catalog = catalogs.get(playlistDir, recursive);
+        } catch (IOException ex) {
+            error(conn, 500, ex.getMessage());
+            return;
+        }
+        String etag = "W/\"" + catalogs.getEpoch() + "-" + catalog.getVersion() + "-" + name + "\"";
+        if (WebServer.matchesEtag(request.headers.get("if-none-match"), etag)) {
+            conn.begin(304);
+            conn.header("ETag", etag);
+            conn.finish(null, null);
+            return;
+        }
+        byte[] body = summary.apply(catalog);
+        conn.begin(200);
+        conn.header("ETag", etag);
+        if (body.length >= WebServer.GZIP_THRESHOLD) {
+            conn.header("Vary", "Accept-Encoding");
+            if (WebServer.acceptsGzip(request.headers.get("accept-encoding"))) {
+                conn.header("Content-Encoding", "gzip");
+                body = compressed.apply(catalog);
+            }
+        }
+        conn.finish(conn.copy(body), JSON);
+    }
+
+    private void songs(Connection conn, Request request) {
+        if (!"GET".equals(request.method)) {
+            error(conn, 405, "Method Not Allowed");
+            return;
+        }
+        Map<String, String> q = WebServer.parseQuery(request.rawQuery);
+        Path playlistDir = service.resolvePlaylistDir(q.get("playlist"));
+        boolean recursive = WebServer.parseBool(q.get("recursive"));
+        boolean sortDuration = "duration".equalsIgnoreCase(WebServer.nullToEmpty(q.get("sort")));
+
+        int limit;
+        int offset;
+        try {
+            limit = WebServer.parsePageParam("limit", q.get("limit"), -1);
+            offset = q.containsKey("cursor") ? WebServer.decodeCursor(q.get("cursor")) : WebServer.parsePageParam("offset", q.get("offset"), 0);
+        } catch (IllegalArgumentException ex) {
+            error(conn, 400, ex.getMessage());
+            return;
+        }
+
+        SongCatalog catalog;
+        try {
+            catalog = catalogs.get(playlistDir, recursive);
+        } catch (IOException ex) {
+            error(conn, 500, ex.getMessage());
+            return;
+        }
+        String query = WebServer.queryKey(catalog, q.get("album"), q.get("artist"), q.get("titlePrefix"), sortDuration, limit, offset);
+        String etag = WebServer.songsEtag(catalogs.getEpoch(), catalog, query);
+        if (WebServer.matchesEtag(request.headers.get("if-none-match"), etag)) {
+            conn.begin(304);
+            conn.header("ETag", etag);
+            conn.finish(null, null);
+            return;
+        }
+
+        boolean gzip = WebServer.acceptsGzip(request.headers.get("accept-encoding"));
+        ResponseCache.Entry cached = responses.get(query, catalog);
+        byte[] body;
+        int total;
+        String nextCursor;
+        String cacheStatus;
+        if (cached != null) {
+            body = cached.body;
+            total = cached.total;
+            nextCursor = cached.nextCursor;
+            cacheStatus = "HIT";
+        } else {
+            int[] ids = catalog.select(q.get("album"), q.get("artist"), q.get("titlePrefix"), sortDuration);
+            total = ids.length;
+            int from = Math.min(offset, total);
+            int to = limit < 0 ? total : (int) Math.min((long) from + limit, total);
+            nextCursor = limit >= 0 && to < total ? WebServer.encodeCursor(to) : null;
+            ByteBuffer encoded = conn.encode(catalog, ids, from, to);
+            body = null;
+            if (encoded.remaining() <= responses.getMaxEntryBytes()) {
+                byte[] copy = new byte[encoded.remaining()];
+                encoded.duplicate().get(copy);
+                responses.put(query, catalog, copy, total, nextCursor);
+            }
+            cacheStatus = "MISS";
+        }
+
+        conn.begin(200);
+        conn.header("ETag", etag);
+        conn.header("X-Cache", cacheStatus);
+        conn.header("X-Total-Count", Integer.toString(total));
+        if (nextCursor != null) {
+            conn.header("X-Next-Cursor", nextCursor);
+        }
+        ByteBuffer out = cached != null ? null : conn.body;
+        int length = cached != null ? body.length : out.remaining();
+        if (length >= WebServer.GZIP_THRESHOLD) {
+            conn.header("Vary", "Accept-Encoding");
+            if (gzip) {
+                conn.header("Content-Encoding", "gzip");
+                if (cached == null) {
+                    out = conn.gzip(out);
+                } else {
+                    byte[] gzipped = cached.gzipped;
+                    if (gzipped == null) {
+                        gzipped = WebServer.gzip(body);
+                        responses.addCompressed(query, cached, gzipped);
+                    }
+                    out = conn.copy(gzipped);
+                }
+            }
+        }
+        if (out == null) {
+            out = conn.copy(body);
+        }
+        conn.finish(out, JSON);
+    }
+
+    private static void error(Connection conn, int status, String message) {
+        conn.begin(status);
+        conn.finish(conn.copy(WebServer.jsonError(message).getBytes(StandardCharsets.UTF_8)), JSON);
+    }
+
+    private static ByteBuffer direct(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private interface IoAction {
+        void run() throws IOException;
+    }
+
+    private static final class Request {
+        final String method;
+        final String path;
+        final String rawQuery;
+        final Map<String, List<String>> headers;
+        final boolean keepAlive;
+
+        private Request(String method, String path, String rawQuery, Map<String, List<String>> headers, boolean keepAlive) {
+            this.method = method;
+            this.path = path;
+            this.rawQuery = rawQuery;
+            this.headers = headers;
+            this.keepAlive = keepAlive;
+        }
+
+        /**
+         * Parses one request head from the bytes read so far and compacts {@code in} past it, or
+         * returns {@code null} if the head is not complete yet.
+         */
+        static Request parse(ByteBuffer in) {
+            int end = -1;
+            for (int i = 3; i < in.position(); i++) {
+                if (in.get(i) == '\n' && in.get(i - 1) == '\r' && in.get(i - 2) == '\n' && in.get(i - 3) == '\r') {
+                    end = i + 1;
+                    break;
+                }
+            }
+            if (end < 0) {
+                return null;
+            }
+            byte[] head = new byte[end];
+            in.flip();
+            in.get(head);
+            in.compact();
+
+            String[] lines = new String(head, StandardCharsets.ISO_8859_1).split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+                throw new IllegalArgumentException("Bad request line");
+            }
+            Map<String, List<String>> headers = new LinkedHashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    throw new IllegalArgumentException("Bad header");
+                }
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                headers.computeIfAbsent(name, k -> new ArrayList<>()).add(lines[i].substring(colon + 1).trim());
+            }
+
+            String connection = String.join(",", headers.getOrDefault("connection", List.of())).toLowerCase(Locale.ROOT);
+            boolean keepAlive = requestLine[2].equals("HTTP/1.1") ? !connection.contains("close") : connection.contains("keep-alive");
+            List<String> length = headers.get("content-length");
+            if (headers.containsKey("transfer-encoding") || (length != null && !length.get(0).equals("0"))) {
+                keepAlive = false;
+            }
+
+            String target = requestLine[1];
+            int question = target.indexOf('?');
+            String path = question >= 0 ? target.substring(0, question) : target;
+            String rawQuery = question >= 0 ? target.substring(question + 1) : null;
+            return new Request(requestLine[0].toUpperCase(Locale.ROOT), path, rawQuery, headers, keepAlive);
+        }
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_HEADER_BYTES);
+        final ByteBuffer head = ByteBuffer.allocateDirect(2048);
+        final ByteBuffer[] out = {head, ByteBuffer.allocate(0)};
+        final StringBuilder headers = new StringBuilder(256);
+        ByteBuffer direct = ByteBuffer.allocateDirect(8 * 1024);
+        ByteBuffer body = direct;
+        ByteBuffer directZipped;
+        ByteBuffer zipped;
+        CatalogEvents.Subscription subscription;
+        long streamVersion;
+        volatile boolean keepAlive;
+        volatile long lastActive = System.currentTimeMillis();
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void begin(int status) {
+            headers.setLength(0);
+            headers.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+        }
+
+        void header(String name, String value) {
+            headers.append(name).append(": ").append(value).append("\r\n");
+        }
+
+        void finish(ByteBuffer content, String contentType) {
+            ByteBuffer payload = content != null ? content : ByteBuffer.allocate(0);
+            if (contentType != null) {
+                header("Content-Type", contentType);
+                header("Content-Length", Integer.toString(payload.remaining()));
+            }
+            header("Connection", keepAlive ? "keep-alive" : "close");
+            headers.append("\r\n");
+            head.clear();
+            for (int i = 0; i < headers.length(); i++) {
+                head.put((byte) headers.charAt(i));
+            }
+            head.flip();
+            out[1] = payload;
+        }
+
+        boolean hasRemaining() {
+            return out[0].hasRemaining() || out[1].hasRemaining();
+        }
+
+        /** Writes the head and at most {@value #DIRECT_BODY_BYTES} bytes of a heap body, so the JDK's temporary direct buffer stays small. */
+        long writeSlice() throws IOException {
+            ByteBuffer payload = out[1];
+            int limit = payload.limit();
+            if (!payload.isDirect() && payload.remaining() > DIRECT_BODY_BYTES) {
+                payload.limit(payload.position() + DIRECT_BODY_BYTES);
+            }
+            try {
+                return channel.write(out);
+            } finally {
+                payload.limit(limit);
+            }
+        }
+
+        ByteBuffer copy(byte[] bytes) {
+            if (bytes.length > DIRECT_BODY_BYTES) {
+                return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+            }
+            direct = ensureCapacity(direct, bytes.length);
+            body = direct;
+            body.put(bytes).flip();
+            return body;
+        }
+
+        ByteBuffer encode(SongCatalog catalog, int[] ids, int from, int to) {
+            body = direct.clear();
+            try {
+                catalog.writeJson(ids, from, to, new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                        grow(1);
+                        body.put((byte) b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        grow(len);
+                        body.put(b, off, len);
+                    }
+                });
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return body.flip();
+        }
+
+        /** Gzips {@code content} into a second buffer, reading it in place. */
+        ByteBuffer gzip(ByteBuffer content) {
+            CRC32 crc = new CRC32();
+            crc.update(content.duplicate());
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(content.duplicate());
+                deflater.finish();
+                int estimate = content.remaining() / 4 + 64;
+                if (estimate <= DIRECT_BODY_BYTES) {
+                    directZipped = ensureCapacity(directZipped, estimate);
+                    zipped = directZipped;
+                } else {
+                    zipped = ByteBuffer.allocate(estimate);
+                }
+                zipped.put(GZIP_HEADER);
+                while (!deflater.finished()) {
+                    if (!zipped.hasRemaining()) {
+                        growZipped(1);
+                    }
+                    deflater.deflate(zipped);
+                }
+            } finally {
+                deflater.end();
+            }
+            growZipped(8);
+            zipped.order(ByteOrder.LITTLE_ENDIAN).putInt((int) crc.getValue()).putInt(content.remaining()).order(ByteOrder.BIG_ENDIAN);
+            return zipped.flip();
+        }
+
+        /** Drops the heap buffers of the last response; the direct ones are kept for the next. */
+        void release() {
+            body = direct;
+            zipped = null;
+            out[1] = ByteBuffer.allocate(0);
+        }
+
+        private void grow(int extra) {
+            body = grow(body, extra);
+            if (body.isDirect()) {
+                direct = body;
+            }
+        }
+
+        private void growZipped(int extra) {
+            zipped = grow(zipped, extra);
+            if (zipped.isDirect()) {
+                directZipped = zipped;
+            }
+        }
+
+        private static ByteBuffer ensureCapacity(ByteBuffer buffer, int size) {
+            if (buffer == null || buffer.capacity() < size) {
+                return ByteBuffer.allocateDirect(size);
+            }
+            return buffer.clear();
+        }
+
+        /** Returns {@code buffer} or a larger copy; copies stay direct only up to {@value #DIRECT_BODY_BYTES} bytes. */
+        private static ByteBuffer grow(ByteBuffer buffer, int extra) {
+            if (buffer.remaining() >= extra) {
+                return buffer;
+            }
+            int needed = buffer.position() + extra;
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, buffer.capacity() * 2L));
+            ByteBuffer larger = buffer.isDirect() && capacity <= DIRECT_BODY_BYTES
+                    ? ByteBuffer.allocateDirect(capacity)
+                    : ByteBuffer.allocate(capacity);
+            buffer.flip();
+            larger.put(buffer);
+            return larger;
+        }
+
+        private static String reason(int status) {
+            switch (status) {
+                case 200: return "OK";
+                case 304: return "Not Modified";
+                case 400: return "Bad Request";
+                case 404: return "Not Found";
+                case 405: return "Method Not Allowed";
+                case 431: return "Request Header Fields Too Large";
+                case 500: return "Internal Server Error";
+                case 503: return "Service Unavailable";
+                default: return "Status";
+            }
+        }
+    }
+}
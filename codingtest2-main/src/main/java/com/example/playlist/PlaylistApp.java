@@ -4,6 +4,7 @@ import com.example.playlist.model.SongEntry;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
@@ -11,12 +12,15 @@ import java.util.Scanner;
 public class PlaylistApp {
 
     public static void main(String[] args) {
-        PlaylistService service = new PlaylistService();
         CommandLineOptions options = CommandLineOptions.parse(args);
         if (options == null) {
             printUsage();
             return;
         }
+        PlaylistService service = new PlaylistService(options.loadThreads);
+        if (options.snapshotFile != null) {
+            service.useSnapshot(Paths.get(options.snapshotFile));
+        }
 
         Path playlistDir = service.resolvePlaylistDir(options.playlistDir);
 
@@ -48,6 +52,12 @@ public class PlaylistApp {
             printSongs(songs);
         } catch (IOException ex) {
             System.err.println("Failed to load playlist: " + ex.getMessage());
+            return;
+        }
+        try {
+            service.saveSnapshot();
+        } catch (IOException ex) {
+            System.err.println("Failed to write snapshot: " + ex.getMessage());
         }
     }
 
@@ -127,10 +137,13 @@ public class PlaylistApp {
                 "                         --title-prefix <text> filter by song title prefix\n" +
                 "                         --sort duration sort songs by duration\n" +
                 "                         --playlist <dir> playlist directory (default: ./playlist)\n" +
-                "                         --recursive include subfolders when reading .tsv files");
+                "                         --recursive include subfolders when reading .tsv files\n" +
+                "                         --threads <n> parse album files with n threads (default: 1)\n" +
+                "                         --snapshot <file> reuse and update a binary catalog snapshot");
         System.out.println("  gui                  Launch GUI to browse playlist\n" +
                 "                         --playlist <dir> playlist directory (default: ./playlist)\n" +
-                "                         --recursive include subfolders when reading .tsv files");
+                "                         --recursive include subfolders when reading .tsv files\n" +
+                "                         --threads <n> parse album files with n threads (default: 1)");
         System.out.println("  add-album            Create a new album interactively\n" +
                 "                         --name <album name> album title\n" +
                 "                         --playlist <dir> playlist directory (default: ./playlist)\n" +
@@ -151,9 +164,12 @@ public class PlaylistApp {
         final boolean sortByDuration;
         final String albumName;
         final boolean recursive;
+        final int loadThreads;
+        final String snapshotFile;
 
         private CommandLineOptions(Command command, String playlistDir, String albumFilter, String artistFilter,
-                                   String titlePrefix, boolean sortByDuration, String albumName, boolean recursive) {
+                                   String titlePrefix, boolean sortByDuration, String albumName, boolean recursive,
+                                   int loadThreads, String snapshotFile) {
             this.command = command;
             this.playlistDir = playlistDir;
             this.albumFilter = albumFilter;
@@ -162,11 +178,13 @@ public class PlaylistApp {
             this.sortByDuration = sortByDuration;
             this.albumName = albumName;
             this.recursive = recursive;
+            this.loadThreads = loadThreads;
+            this.snapshotFile = snapshotFile;
         }
 
         static CommandLineOptions parse(String[] args) {
             if (args.length == 0) {
-                return new CommandLineOptions(Command.HELP, null, null, null, null, false, null, false);
+                return new CommandLineOptions(Command.HELP, null, null, null, null, false, null, false, 1, null);
             }
             Command command;
             switch (args[0]) {
@@ -196,6 +214,8 @@ public class PlaylistApp {
             boolean sortByDuration = false;
             String albumName = null;
             boolean recursive = false;
+            int loadThreads = 1;
+            String snapshotFile = null;
 
             for (int i = 1; i < args.length; i++) {
                 String arg = args[i];
@@ -244,6 +264,29 @@ public class PlaylistApp {
                     case "--recursive":
                         recursive = true;
                         break;
+                    case "--threads":
+                        if (i + 1 >= args.length) {
+                            System.err.println("Missing value for --threads");
+                            return null;
+                        }
+                        String threads = args[++i];
+                        try {
+                            loadThreads = Integer.parseInt(threads);
+                        } catch (NumberFormatException ex) {
+                            loadThreads = 0;
+                        }
+                        if (loadThreads < 1) {
+                            System.err.println("Invalid thread count: " + threads);
+                            return null;
+                        }
+                        break;
+                    case "--snapshot":
+                        if (i + 1 >= args.length) {
+                            System.err.println("Missing value for --snapshot");
+                            return null;
+                        }
+                        snapshotFile = args[++i];
+                        break;
                     case "--name":
                         if (i + 1 >= args.length) {
                             System.err.println("Missing value for --name");
@@ -256,7 +299,7 @@ public class PlaylistApp {
                         return null;
                 }
             }
-            return new CommandLineOptions(command, playlistDir, albumFilter, artistFilter, titlePrefix, sortByDuration, albumName, recursive);
+            return new CommandLineOptions(command, playlistDir, albumFilter, artistFilter, titlePrefix, sortByDuration, albumName, recursive, loadThreads, snapshotFile);
         }
     }
 
@@ -1,28 +1,133 @@
 package com.example.playlist;
 
+import com.example.playlist.model.DurationStats;
 import com.example.playlist.model.SongEntry;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class PlaylistService {
+    private static final long MAPPED_READ_THRESHOLD = 1L << 20;
+    private static final char BOM = '\uFEFF';
+
+    private final Map<Path, AlbumColumns> albumCache = new ConcurrentHashMap<>();
+    private final StringDictionary albums = new StringDictionary();
+    private final StringDictionary artists = new StringDictionary();
+    private final StringDictionary durations = new StringDictionary();
+    private final Set<Path> scannedDirs = ConcurrentHashMap.newKeySet();
+    private final Set<Path> scannedTrees = ConcurrentHashMap.newKeySet();
+    private final ReadWriteLock internLock = new ReentrantReadWriteLock();
+    private volatile Path snapshotFile;
+    private volatile CatalogSnapshot snapshot;
+    private volatile boolean snapshotDirty;
+    private final int loadParallelism;
+    private ForkJoinPool loadPool;
+
+    public PlaylistService() {
+        this(1);
+    }
+
+    public PlaylistService(int loadParallelism) {
+        if (loadParallelism < 1) {
+            throw new IllegalArgumentException("loadParallelism must be at least 1");
+        }
+        this.loadParallelism = loadParallelism;
+    }
+
+    public int getLoadParallelism() {
+        return loadParallelism;
+    }
+
+    /**
+     * Keeps the parsed catalog in the binary snapshot {@code file}. If the file already exists it is
+     * mapped, and album files whose modification time and size still match are read from it instead
+     * of being parsed; {@link #saveSnapshot()} writes it back. An unreadable snapshot is ignored.
+     */
+    public void useSnapshot(Path file) {
+        snapshotFile = Objects.requireNonNull(file, "file");
+        snapshot = null;
+        if (Files.isRegularFile(file)) {
+            try {
+                snapshot = CatalogSnapshot.open(file);
+            } catch (IOException ex) {
+                System.err.println("Ignoring snapshot " + file + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot file if any album was parsed or removed since the last write. It holds every
+     * album loaded so far plus the records of the previous snapshot that lie outside the directories
+     * loaded by this service, so listing one playlist does not drop another one's albums.
+     */
+    public boolean saveSnapshot() throws IOException {
+        Path file = snapshotFile;
+        if (file == null || !snapshotDirty) {
+            return false;
+        }
+        snapshotDirty = false;
+        try {
+            List<AlbumColumns> saved = new ArrayList<>(albumCache.values());
+            saved.addAll(carriedSnapshotAlbums());
+            CatalogSnapshot.write(file, saved);
+        } catch (IOException | RuntimeException ex) {
+            snapshotDirty = true;
+            throw ex;
+        }
+        return true;
+    }
 
     public List<SongEntry> loadSongs(Path playlistDir) throws IOException {
         return loadSongs(playlistDir, false);
     }
 
     public List<SongEntry> loadSongs(Path playlistDir, boolean recursive) throws IOException {
+        List<SongEntry> songs = new ArrayList<>();
+        for (AlbumColumns album : loadAlbums(playlistDir, recursive)) {
+            album.addSongsTo(songs);
+        }
+        return songs;
+    }
+
+    /**
+     * Returns the album files below {@code playlistDir} in path order. Files whose modification
+     * time and size are unchanged since the last call come back as the same instances.
+     */
+    List<AlbumColumns> loadAlbums(Path playlistDir, boolean recursive) throws IOException {
         if (playlistDir == null) {
             throw new IllegalArgumentException("playlistDir must not be null");
         }
@@ -50,38 +155,315 @@ public class PlaylistService {
             }
         }
 
-        List<SongEntry> songs = new ArrayList<>();
+        List<Path> keys = new ArrayList<>(albumFiles.size());
         for (Path albumFile : albumFiles) {
-            songs.addAll(readAlbum(albumFile));
+            keys.add(albumFile.toAbsolutePath().normalize());
+        }
+        internLock.readLock().lock();
+        try {
+            List<AlbumColumns> albums = loadParallelism > 1 && albumFiles.size() > 1
+                    ? loadAlbumsInParallel(albumFiles, keys)
+                    : loadAlbumsSequentially(albumFiles, keys);
+
+            Set<Path> seen = new HashSet<>(keys);
+            pruneAlbumCache(playlistDir.toAbsolutePath().normalize(), recursive, seen);
+            return albums;
+        } finally {
+            internLock.readLock().unlock();
         }
-        return songs;
     }
 
-    private List<SongEntry> readAlbum(Path albumFile) throws IOException {
-        List<SongEntry> songs = new ArrayList<>();
-        String albumName = stripExtension(albumFile.getFileName().toString());
+    /**
+     * Releases what was loaded for {@code playlistDir}: cached albums below it that no other loaded
+     * directory covers, and the names, artists and durations no remaining album uses. Called when a
+     * {@link CatalogCache} drops the directory. Names are only released when no load is running;
+     * otherwise they wait for the next call.
+     */
+    public void forget(Path playlistDir, boolean recursive) {
+        Path root = playlistDir.toAbsolutePath().normalize();
+        (recursive ? scannedTrees : scannedDirs).remove(root);
+        albumCache.keySet().removeIf(key -> contains(root, recursive, key) && !scanned(key));
+        if (!internLock.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            Set<StringDictionary.Term> live = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (AlbumColumns album : albumCache.values()) {
+                live.add(album.album);
+                Collections.addAll(live, album.artists);
+                Collections.addAll(live, album.durations);
+            }
+            albums.retainAll(live);
+            artists.retainAll(live);
+            durations.retainAll(live);
+            CatalogSnapshot current = snapshot;
+            if (current != null) {
+                current.clearTerms();
+            }
+        } finally {
+            internLock.writeLock().unlock();
+        }
+    }
+
+    private List<AlbumColumns> loadAlbumsSequentially(List<Path> albumFiles, List<Path> keys) throws IOException {
+        List<AlbumColumns> albums = new ArrayList<>(albumFiles.size());
+        for (int i = 0; i < albumFiles.size(); i++) {
+            albums.add(loadAlbum(albumFiles.get(i), keys.get(i)));
+        }
+        return albums;
+    }
+
+    private List<AlbumColumns> loadAlbumsInParallel(List<Path> albumFiles, List<Path> keys) throws IOException {
+        List<Callable<AlbumColumns>> tasks = new ArrayList<>(albumFiles.size());
+        for (int i = 0; i < albumFiles.size(); i++) {
+            Path albumFile = albumFiles.get(i);
+            Path key = keys.get(i);
+            tasks.add(() -> loadAlbum(albumFile, key));
+        }
+        List<Future<AlbumColumns>> futures = loadPool().invokeAll(tasks);
+        List<AlbumColumns> albums = new ArrayList<>(futures.size());
+        for (Future<AlbumColumns> future : futures) {
+            try {
+                albums.add(future.get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading playlist", ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+        return albums;
+    }
+
+    private synchronized ForkJoinPool loadPool() {
+        if (loadPool == null) {
+            loadPool = new ForkJoinPool(loadParallelism);
+        }
+        return loadPool;
+    }
+
+    private AlbumColumns loadAlbum(Path albumFile, Path key) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(albumFile, BasicFileAttributes.class);
+        FileTime lastModified = attrs.lastModifiedTime();
+        long size = attrs.size();
+        AlbumColumns cached = albumCache.get(key);
+        if (cached != null && cached.lastModified.equals(lastModified) && cached.size == size) {
+            return cached;
+        }
+        AlbumColumns album = fromSnapshot(key, lastModified, size);
+        if (album == null) {
+            album = readAlbum(albumFile, size).build(key, lastModified, size);
+            snapshotDirty = true;
+        }
+        albumCache.put(key, album);
+        return album;
+    }
+
+    private AlbumColumns fromSnapshot(Path key, FileTime lastModified, long size) {
+        CatalogSnapshot current = snapshot;
+        if (current == null) {
+            return null;
+        }
+        try {
+            return current.album(key, lastModified, size, albums, artists, durations);
+        } catch (RuntimeException ex) {
+            snapshot = null;
+            System.err.println("Ignoring corrupt snapshot " + snapshotFile + ": " + ex);
+            return null;
+        }
+    }
+
+    /** Returns the mapped snapshot's albums that were neither loaded again nor below a directory that was loaded. */
+    private List<AlbumColumns> carriedSnapshotAlbums() {
+        CatalogSnapshot current = snapshot;
+        if (current == null) {
+            return List.of();
+        }
+        internLock.readLock().lock();
+        try {
+            return current.albums(key -> !albumCache.containsKey(key) && !scanned(key), albums, artists, durations);
+        } catch (RuntimeException ex) {
+            snapshot = null;
+            System.err.println("Ignoring corrupt snapshot " + snapshotFile + ": " + ex);
+            return List.of();
+        } finally {
+            internLock.readLock().unlock();
+        }
+    }
+
+    private boolean scanned(Path albumFile) {
+        if (scannedDirs.contains(albumFile.getParent())) {
+            return true;
+        }
+        for (Path root : scannedTrees) {
+            if (albumFile.startsWith(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void pruneAlbumCache(Path root, boolean recursive, Set<Path> seen) {
+        (recursive ? scannedTrees : scannedDirs).add(root);
+        if (albumCache.keySet().removeIf(key -> !seen.contains(key) && contains(root, recursive, key))) {
+            snapshotDirty = true;
+        }
+        CatalogSnapshot current = snapshot;
+        if (current != null && !snapshotDirty) {
+            try {
+                for (Path key : current.paths()) {
+                    if (!seen.contains(key) && contains(root, recursive, key)) {
+                        snapshotDirty = true;
+                        break;
+                    }
+                }
+            } catch (RuntimeException ex) {
+                snapshot = null;
+                System.err.println("Ignoring corrupt snapshot " + snapshotFile + ": " + ex);
+            }
+        }
+    }
+
+    private static boolean contains(Path root, boolean recursive, Path albumFile) {
+        return recursive ? albumFile.startsWith(root) : root.equals(albumFile.getParent());
+    }
+
+    private AlbumColumns.Builder readAlbum(Path albumFile, long size) throws IOException {
+        StringDictionary.Term album = albums.intern(stripExtension(albumFile.getFileName().toString()));
+        if (size >= MAPPED_READ_THRESHOLD && size <= Integer.MAX_VALUE) {
+            return readMappedAlbum(albumFile, album);
+        }
+        AlbumColumns.Builder songs = new AlbumColumns.Builder(album);
         try (BufferedReader reader = Files.newBufferedReader(albumFile, StandardCharsets.UTF_8)) {
-            String line;
+            String line = reader.readLine();
+            if (line != null && !line.isEmpty() && line.charAt(0) == BOM) {
+                line = line.substring(1);
+            }
             int trackNumber = 1;
-            while ((line = reader.readLine()) != null) {
+            for (; line != null; line = reader.readLine()) {
                 if (line.isBlank()) {
                     continue;
                 }
-                String[] parts = line.split("\t");
-                if (parts.length < 3) {
+                if (!parseTrackLine(line, songs, trackNumber)) {
                     throw new IOException("Invalid line in album " + albumFile + ": " + line);
                 }
-                String title = parts[0].trim();
-                String artist = parts[1].trim();
-                String durationText = parts[2].trim();
-                int durationSeconds = parseDuration(durationText);
-                songs.add(new SongEntry(albumName, trackNumber, title, artist, durationText, durationSeconds));
                 trackNumber++;
             }
         }
         return songs;
     }
 
+    private AlbumColumns.Builder readMappedAlbum(Path albumFile, StringDictionary.Term album) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(albumFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        Utf8FieldDecoder decoder = new Utf8FieldDecoder(buffer);
+        AlbumColumns.Builder songs = new AlbumColumns.Builder(album);
+        int limit = buffer.limit();
+        int pos = hasUtf8Bom(buffer) ? 3 : 0;
+        int trackNumber = 1;
+        while (pos < limit) {
+            int lineEnd = pos;
+            boolean visible = false;
+            boolean nonAscii = false;
+            int firstTab = -1;
+            int secondTab = -1;
+            int thirdTab = -1;
+            for (; lineEnd < limit; lineEnd++) {
+                byte b = buffer.get(lineEnd);
+                if (b == '\n' || b == '\r') {
+                    break;
+                }
+                if (b < 0) {
+                    nonAscii = true;
+                } else if (b == '\t') {
+                    if (firstTab < 0) {
+                        firstTab = lineEnd;
+                    } else if (secondTab < 0) {
+                        secondTab = lineEnd;
+                    } else if (thirdTab < 0) {
+                        thirdTab = lineEnd;
+                    }
+                } else if (!Character.isWhitespace(b)) {
+                    visible = true;
+                }
+            }
+            int next = lineEnd;
+            if (next < limit) {
+                next += buffer.get(next) == '\r' && next + 1 < limit && buffer.get(next + 1) == '\n' ? 2 : 1;
+            }
+
+            boolean added;
+            if (!visible) {
+                if (!nonAscii) {
+                    pos = next;
+                    continue;
+                }
+                String line = decoder.decode(pos, lineEnd);
+                if (line.isBlank()) {
+                    pos = next;
+                    continue;
+                }
+                added = parseTrackLine(line, songs, trackNumber);
+            } else {
+                added = parseTrackBytes(buffer, decoder, pos, lineEnd, firstTab, secondTab, thirdTab, songs, trackNumber);
+                if (nonAscii && thirdTab >= 0) {
+                    // ignored columns must still be valid UTF-8, as the reader path requires
+                    decoder.validate(thirdTab + 1, lineEnd);
+                }
+            }
+            if (!added) {
+                throw new IOException("Invalid line in album " + albumFile + ": " + decoder.decode(pos, lineEnd));
+            }
+            trackNumber++;
+            pos = next;
+        }
+        return songs;
+    }
+
+    private boolean parseTrackBytes(ByteBuffer buffer, Utf8FieldDecoder decoder, int start, int end,
+                                    int firstTab, int secondTab, int thirdTab,
+                                    AlbumColumns.Builder songs, int trackNumber) throws IOException {
+        if (secondTab < 0) {
+            return false;
+        }
+        int durationStart = secondTab + 1;
+        int durationEnd = thirdTab < 0 ? end : thirdTab;
+        if (durationStart == durationEnd) {
+            boolean more = false;
+            for (int i = durationEnd; i < end && !more; i++) {
+                more = buffer.get(i) != '\t';
+            }
+            if (!more) {
+                return false;
+            }
+        }
+        String title = decoder.decodeTrimmed(start, firstTab);
+        String artist = decoder.decodeTrimmed(firstTab + 1, secondTab);
+        String durationText = decoder.decodeTrimmed(durationStart, durationEnd);
+        int durationSeconds = durationText.isEmpty() ? -1 : parseDuration(durationText, 0, durationText.length());
+        addSong(songs, trackNumber, title, artist, durationText, durationSeconds);
+        return true;
+    }
+
+    private static boolean hasUtf8Bom(ByteBuffer buffer) {
+        return buffer.limit() >= 3
+                && buffer.get(0) == (byte) 0xEF
+                && buffer.get(1) == (byte) 0xBB
+                && buffer.get(2) == (byte) 0xBF;
+    }
+
     private String stripExtension(String filename) {
         int dotIndex = filename.lastIndexOf('.');
         if (dotIndex <= 0) {
@@ -90,32 +472,129 @@ public class PlaylistService {
         return filename.substring(0, dotIndex);
     }
 
+    private boolean parseTrackLine(String line, AlbumColumns.Builder songs, int trackNumber) {
+        int length = line.length();
+        int firstTab = line.indexOf('\t');
+        if (firstTab < 0) {
+            return false;
+        }
+        int secondTab = line.indexOf('\t', firstTab + 1);
+        if (secondTab < 0) {
+            return false;
+        }
+        int durationStart = secondTab + 1;
+        int durationEnd = line.indexOf('\t', durationStart);
+        if (durationEnd < 0) {
+            durationEnd = length;
+        }
+        if (durationStart == durationEnd && !hasNonTab(line, durationEnd, length)) {
+            return false;
+        }
+        String title = trimmedField(line, 0, firstTab);
+        String artist = trimmedField(line, firstTab + 1, secondTab);
+        String durationText = trimmedField(line, durationStart, durationEnd);
+        int durationSeconds = durationText.isEmpty() ? -1 : parseDuration(durationText, 0, durationText.length());
+        addSong(songs, trackNumber, title, artist, durationText, durationSeconds);
+        return true;
+    }
+
+    private void addSong(AlbumColumns.Builder songs, int trackNumber, String title, String artist,
+                         String durationText, int durationSeconds) {
+        songs.add(trackNumber, title, artists.intern(artist), durations.intern(durationText), durationSeconds);
+    }
+
+    private static boolean hasNonTab(String line, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (line.charAt(i) != '\t') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String trimmedField(String line, int start, int end) {
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return line.substring(start, end);
+    }
+
     private int parseDuration(String text) {
         if (text == null || text.isBlank()) {
             return -1;
         }
-        String[] parts = text.split(":");
-        try {
-            if (parts.length == 2) {
-                int minutes = Integer.parseInt(parts[0]);
-                int seconds = Integer.parseInt(parts[1]);
-                if (minutes < 0 || seconds < 0 || seconds >= 60) {
-                    return -1;
-                }
-                return minutes * 60 + seconds;
-            } else if (parts.length == 3) {
-                int hours = Integer.parseInt(parts[0]);
-                int minutes = Integer.parseInt(parts[1]);
-                int seconds = Integer.parseInt(parts[2]);
-                if (hours < 0 || minutes < 0 || minutes >= 60 || seconds < 0 || seconds >= 60) {
+        return parseDuration(text, 0, text.length());
+    }
+
+    private static int parseDuration(CharSequence text, int start, int end) {
+        while (end > start && text.charAt(end - 1) == ':') {
+            end--;
+        }
+        int firstColon = -1;
+        int secondColon = -1;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == ':') {
+                if (firstColon < 0) {
+                    firstColon = i;
+                } else if (secondColon < 0) {
+                    secondColon = i;
+                } else {
                     return -1;
                 }
-                return hours * 3600 + minutes * 60 + seconds;
             }
-        } catch (NumberFormatException ex) {
+        }
+        if (firstColon < 0) {
+            return -1;
+        }
+        if (secondColon < 0) {
+            int minutes = parseNonNegativeInt(text, start, firstColon);
+            int seconds = parseNonNegativeInt(text, firstColon + 1, end);
+            if (minutes < 0 || seconds < 0 || seconds >= 60) {
+                return -1;
+            }
+            return minutes * 60 + seconds;
+        }
+        int hours = parseNonNegativeInt(text, start, firstColon);
+        int minutes = parseNonNegativeInt(text, firstColon + 1, secondColon);
+        int seconds = parseNonNegativeInt(text, secondColon + 1, end);
+        if (hours < 0 || minutes < 0 || minutes >= 60 || seconds < 0 || seconds >= 60) {
             return -1;
         }
-        return -1;
+        return hours * 3600 + minutes * 60 + seconds;
+    }
+
+    /**
+     * Parses the digits in {@code [start, end)} with the same syntax as {@link Integer#parseInt(String)}.
+     * Returns -1 for text parseInt would reject and for negative values, which no duration field accepts.
+     */
+    private static int parseNonNegativeInt(CharSequence text, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        boolean negative = false;
+        char first = text.charAt(start);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            start++;
+            if (start == end) {
+                return -1;
+            }
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(text.charAt(i), 10);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return negative && value != 0 ? -1 : (int) value;
     }
 
     public boolean isParsableDuration(String text) {
@@ -135,13 +614,13 @@ public class PlaylistService {
         String normalizedPrefix = normalize(titlePrefix);
 
         return songs.stream()
-                .filter(song -> normalizedAlbum == null || normalize(song.getAlbumName()).contains(normalizedAlbum))
-                .filter(song -> normalizedArtist == null || normalize(song.getArtist()).contains(normalizedArtist))
+                .filter(song -> normalizedAlbum == null || contains(song.getAlbumSearchKey(), normalizedAlbum))
+                .filter(song -> normalizedArtist == null || contains(song.getArtistSearchKey(), normalizedArtist))
                 .filter(song -> {
                     if (normalizedPrefix == null) {
                         return true;
                     }
-                    String title = normalize(song.getTitle());
+                    String title = song.getTitleSearchKey();
                     return title != null && title.startsWith(normalizedPrefix);
                 })
                 .collect(Collectors.toList());
@@ -152,24 +631,47 @@ public class PlaylistService {
         if (sortByDuration) {
             comparator = Comparator
                     .comparingInt((SongEntry song) -> song.getDurationSeconds() >= 0 ? song.getDurationSeconds() : Integer.MAX_VALUE)
-                    .thenComparing(SongEntry::getAlbumName, String.CASE_INSENSITIVE_ORDER)
+                    .thenComparing(SongEntry::getAlbumSortKey, SongEntry.SORT_KEY_ORDER)
                     .thenComparingInt(SongEntry::getTrackNumber);
         } else {
-            comparator = Comparator.comparing(SongEntry::getAlbumName, String.CASE_INSENSITIVE_ORDER)
+            comparator = Comparator.comparing(SongEntry::getAlbumSortKey, SongEntry.SORT_KEY_ORDER)
                     .thenComparingInt(SongEntry::getTrackNumber);
         }
         return songs.stream().sorted(comparator).collect(Collectors.toList());
     }
 
-    private String normalize(String text) {
-        if (text == null) {
-            return null;
+    public DurationStats durationStats(List<SongEntry> songs) {
+        DurationStats stats = new DurationStats();
+        for (SongEntry song : songs) {
+            stats.record(song.getDurationSeconds());
         }
-        String trimmed = text.trim();
-        if (trimmed.isEmpty()) {
-            return null;
+        return stats;
+    }
+
+    /** Duration statistics per album name, in the order the albums first appear in {@code songs}. */
+    public Map<String, DurationStats> durationStatsByAlbum(List<SongEntry> songs) {
+        Map<String, DurationStats> stats = new LinkedHashMap<>();
+        for (SongEntry song : songs) {
+            stats.computeIfAbsent(song.getAlbumName(), k -> new DurationStats()).record(song.getDurationSeconds());
+        }
+        return stats;
+    }
+
+    /** Duration statistics per artist, in the order the artists first appear in {@code songs}. */
+    public Map<String, DurationStats> durationStatsByArtist(List<SongEntry> songs) {
+        Map<String, DurationStats> stats = new LinkedHashMap<>();
+        for (SongEntry song : songs) {
+            stats.computeIfAbsent(song.getArtist(), k -> new DurationStats()).record(song.getDurationSeconds());
         }
-        return trimmed.toLowerCase(Locale.ROOT);
+        return stats;
+    }
+
+    private static boolean contains(String key, String query) {
+        return key != null && key.contains(query);
+    }
+
+    static String normalize(String text) {
+        return SongEntry.searchKey(text);
     }
 
     public Path writeAlbum(Path playlistDir, String albumName, List<String> lines) throws IOException {
@@ -196,4 +698,57 @@ public class PlaylistService {
     private String sanitizeFileName(String name) {
         return name.replaceAll("[\\\\/:*?\"<>|]", "_").trim();
     }
+
+    private static final class Utf8FieldDecoder {
+        private final ByteBuffer view;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        private CharBuffer chars = CharBuffer.allocate(256);
+
+        Utf8FieldDecoder(ByteBuffer buffer) {
+            this.view = buffer.duplicate();
+        }
+
+        String decodeTrimmed(int start, int end) throws IOException {
+            view.clear();
+            while (start < end && isTrimmable(view.get(start))) {
+                start++;
+            }
+            while (end > start && isTrimmable(view.get(end - 1))) {
+                end--;
+            }
+            return decode(start, end);
+        }
+
+        String decode(int start, int end) throws IOException {
+            if (start == end) {
+                return "";
+            }
+            validate(start, end);
+            chars.flip();
+            return chars.toString();
+        }
+
+        /** Decodes {@code [start, end)} into the scratch buffer, throwing if it is not valid UTF-8. */
+        void validate(int start, int end) throws IOException {
+            view.clear();
+            view.position(start);
+            view.limit(end);
+            if (chars.capacity() < end - start) {
+                chars = CharBuffer.allocate(end - start);
+            }
+            chars.clear();
+            decoder.reset();
+            CoderResult result = decoder.decode(view, chars, true);
+            if (result.isError()) {
+                result.throwException();
+            }
+            decoder.flush(chars);
+        }
+
+        private static boolean isTrimmable(byte b) {
+            return b >= 0 && b <= ' ';
+        }
+    }
 }
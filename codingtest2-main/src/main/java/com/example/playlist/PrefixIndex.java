@@ -0,0 +1,84 @@
+package com.example.playlist;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Prefix index over one normalized song field. The values are kept UTF-8 encoded in one byte
+ * arena, addressed by song id, together with the song ids sorted by value. A lookup costs one
+ * binary search plus the number of matches.
+ */
+final class PrefixIndex {
+    private final byte[] keys;
+    private final int[] keyOffsets;
+    private final int[] songIds;
+
+    private PrefixIndex(byte[] keys, int[] keyOffsets, int[] songIds) {
+        this.keys = keys;
+        this.keyOffsets = keyOffsets;
+        this.songIds = songIds;
+    }
+
+    static PrefixIndex build(List<String> normalizedValues) {
+        int count = normalizedValues.size();
+        byte[] keys = new byte[Math.max(16, count * 8)];
+        int[] keyOffsets = new int[count + 1];
+        List<Integer> order = new ArrayList<>(count);
+        int length = 0;
+        for (int songId = 0; songId < count; songId++) {
+            String value = normalizedValues.get(songId);
+            if (value != null) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                if (length + bytes.length > keys.length) {
+                    keys = Arrays.copyOf(keys, Math.max(length + bytes.length, keys.length * 2));
+                }
+                System.arraycopy(bytes, 0, keys, length, bytes.length);
+                length += bytes.length;
+                order.add(songId);
+            }
+            keyOffsets[songId + 1] = length;
+        }
+        byte[] arena = Arrays.copyOf(keys, length);
+        order.sort((a, b) -> {
+            int cmp = Arrays.compareUnsigned(arena, keyOffsets[a], keyOffsets[a + 1], arena, keyOffsets[b], keyOffsets[b + 1]);
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+        });
+
+        int[] songIds = new int[order.size()];
+        for (int i = 0; i < songIds.length; i++) {
+            songIds[i] = order.get(i);
+        }
+        return new PrefixIndex(arena, keyOffsets, songIds);
+    }
+
+    /** Returns the ascending ids of songs whose value starts with {@code prefix}, which must already be normalized. */
+    int[] matchPrefix(String prefix) {
+        byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = songIds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int songId = songIds[mid];
+            if (Arrays.compareUnsigned(keys, keyOffsets[songId], keyOffsets[songId + 1], bytes, 0, bytes.length) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int end = low;
+        while (end < songIds.length && startsWith(songIds[end], bytes)) {
+            end++;
+        }
+        int[] matches = Arrays.copyOfRange(songIds, low, end);
+        Arrays.sort(matches);
+        return matches;
+    }
+
+    private boolean startsWith(int songId, byte[] prefix) {
+        int start = keyOffsets[songId];
+        return keyOffsets[songId + 1] - start >= prefix.length
+                && Arrays.equals(keys, start, start + prefix.length, prefix, 0, prefix.length);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.playlist;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded LRU cache of encoded song listings, keyed by the normalized query.
+ * Entries remember the catalog version they were built from and are dropped when
+ * that catalog is replaced.
+ */
+final class ResponseCache implements CatalogCache.Listener {
+    private final long budgetBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long usedBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    ResponseCache(long budgetBytes) {
+        this.budgetBytes = Math.max(0, budgetBytes);
+        this.maxEntryBytes = this.budgetBytes / 8;
+    }
+
+    long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    synchronized Entry get(String key, SongCatalog catalog) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.version == catalog.getVersion()) {
+            hits.incrementAndGet();
+            return entry;
+        }
+        if (entry != null) {
+            remove(key);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    synchronized void put(String key, SongCatalog catalog, byte[] body, int total, String nextCursor) {
+        if (body.length > maxEntryBytes) {
+            return;
+        }
+        remove(key);
+        Entry entry = new Entry(catalog.getPlaylistDir(), catalog.isRecursive(), catalog.getVersion(), body, total, nextCursor);
+        entries.put(key, entry);
+        usedBytes += entry.size();
+        evictToBudget();
+    }
+
+    synchronized void addCompressed(String key, Entry entry, byte[] gzipped) {
+        if (entry.gzipped == null && entries.get(key) == entry) {
+            entry.gzipped = gzipped;
+            usedBytes += gzipped.length;
+            evictToBudget();
+        }
+    }
+
+    @Override
+    public synchronized void catalogChanged(SongCatalog previous, SongCatalog current) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.recursive == previous.isRecursive() && entry.playlistDir.equals(previous.getPlaylistDir())
+                    && entry.version != current.getVersion()) {
+                usedBytes -= entry.size();
+                it.remove();
+            }
+        }
+    }
+
+    synchronized String statsJson() {
+        return "{\"hits\":" + hits.get()
+                + ",\"misses\":" + misses.get()
+                + ",\"evictions\":" + evictions.get()
+                + ",\"entries\":" + entries.size()
+                + ",\"bytes\":" + usedBytes
+                + ",\"budgetBytes\":" + budgetBytes
+                + "}";
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            usedBytes -= removed.size();
+        }
+    }
+
+    private void evictToBudget() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (usedBytes > budgetBytes && it.hasNext()) {
+            usedBytes -= it.next().getValue().size();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    static final class Entry {
+        final Path playlistDir;
+        final boolean recursive;
+        final long version;
+        final byte[] body;
+        final int total;
+        final String nextCursor;
+        volatile byte[] gzipped;
+
+        Entry(Path playlistDir, boolean recursive, long version, byte[] body, int total, String nextCursor) {
+            this.playlistDir = playlistDir;
+            this.recursive = recursive;
+            this.version = version;
+            this.body = body;
+            this.total = total;
+            this.nextCursor = nextCursor;
+        }
+
+        long size() {
+            byte[] compressed = gzipped;
+            return body.length + (compressed == null ? 0 : compressed.length);
+        }
+    }
+}
@@ -0,0 +1,686 @@
+package com.example.playlist;
+
+import com.example.playlist.model.DurationStats;
+import com.example.playlist.model.SongEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Column store for one playlist directory. Albums, artists and duration texts are dictionary
+ * encoded into {@code int[]} columns, titles live in one UTF-8 arena, and the filter indexes and
+ * sort orders are built over those columns. The catalog is assembled from the service's
+ * {@link AlbumColumns} without going through {@link SongEntry}; those are only created when a
+ * caller asks for them.
+ */
+public class SongCatalog {
+    private static final int[] STATS_PERCENTILES = {50, 90, 95, 99};
+
+    private final Path playlistDir;
+    private final boolean recursive;
+    private final long version;
+    private final int size;
+    private final String[] albumNames;
+    private final String[] albumSearchKeys;
+    private final String[] albumSortKeys;
+    private final String[] artistNames;
+    private final String[] artistSearchKeys;
+    private final String[] durationTexts;
+    private final int[] albumDictionaryIds;
+    private final int[] artistDictionaryIds;
+    private final int[] albumIds;
+    private final int[] artistIds;
+    private final int[] durationTextIds;
+    private final int[] trackNumbers;
+    private final int[] durationSeconds;
+    private final byte[] titles;
+    private final int[] titleOffsets;
+    private final TermIndex albumIndex;
+    private final TermIndex artistIndex;
+    private final PrefixIndex titleIndex;
+    private final int[] albumOrder;
+    private final int[] albumRank;
+    private final int[] durationOrder;
+    private final int[] durationRank;
+    private final byte[] json;
+    private final int[] jsonStart;
+    private final int[] jsonEnd;
+    private final Map<String, List<FileStamp>> albumFiles;
+    private volatile byte[] statsJson;
+    private volatile byte[] statsJsonGzip;
+    private volatile byte[] facetsJson;
+    private volatile byte[] facetsJsonGzip;
+
+    SongCatalog(Path playlistDir, boolean recursive, long version, List<AlbumColumns> albumFiles) {
+        this.playlistDir = playlistDir;
+        this.recursive = recursive;
+        this.version = version;
+        int songCount = 0;
+        int titleBytes = 0;
+        for (AlbumColumns album : albumFiles) {
+            songCount += album.size();
+            titleBytes += album.titles.length;
+        }
+        this.size = songCount;
+
+        Dictionary albums = new Dictionary();
+        Dictionary artists = new Dictionary();
+        Dictionary durations = new Dictionary();
+        this.albumIds = new int[size];
+        this.artistIds = new int[size];
+        this.durationTextIds = new int[size];
+        this.trackNumbers = new int[size];
+        this.durationSeconds = new int[size];
+        this.titleOffsets = new int[size + 1];
+        this.titles = new byte[titleBytes];
+        List<String> albumSearch = new ArrayList<>();
+        List<String> albumSort = new ArrayList<>();
+        List<String> artistSearch = new ArrayList<>();
+        Map<String, List<FileStamp>> files = new HashMap<>();
+        int id = 0;
+        int titleStart = 0;
+        for (AlbumColumns album : albumFiles) {
+            if (album.size() == 0) {
+                continue;
+            }
+            files.computeIfAbsent(album.album.value, k -> new ArrayList<>()).add(new FileStamp(album));
+            int albumId = albums.idOf(album.album.value, album.album.id);
+            if (albumId == albumSearch.size()) {
+                albumSearch.add(album.album.searchKey);
+                albumSort.add(album.album.sortKey);
+            }
+            System.arraycopy(album.titles, 0, titles, titleStart, album.titles.length);
+            for (int i = 0; i < album.size(); i++, id++) {
+                albumIds[id] = albumId;
+                StringDictionary.Term artist = album.artists[i];
+                int artistId = artists.idOf(artist.value, artist.id);
+                if (artistId == artistSearch.size()) {
+                    artistSearch.add(artist.searchKey);
+                }
+                artistIds[id] = artistId;
+                durationTextIds[id] = durations.idOf(album.durations[i].value, album.durations[i].id);
+                trackNumbers[id] = album.trackNumbers[i];
+                durationSeconds[id] = album.durationSeconds[i];
+                titleOffsets[id + 1] = titleStart + album.titleEnds[i];
+            }
+            titleStart += album.titles.length;
+        }
+        this.albumFiles = files;
+        this.albumNames = albums.values();
+        this.albumSearchKeys = albumSearch.toArray(new String[0]);
+        this.albumSortKeys = albumSort.toArray(new String[0]);
+        this.artistNames = artists.values();
+        this.artistSearchKeys = artistSearch.toArray(new String[0]);
+        this.durationTexts = durations.values();
+        this.albumDictionaryIds = albums.sourceIds();
+        this.artistDictionaryIds = artists.sourceIds();
+
+        this.albumIndex = TermIndex.build(column(albumSearchKeys, albumIds));
+        this.artistIndex = TermIndex.build(column(artistSearchKeys, artistIds));
+        this.titleIndex = PrefixIndex.build(new AbstractList<String>() {
+            @Override
+            public String get(int song) {
+                return SongEntry.searchKey(title(song));
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        });
+
+        this.albumOrder = albumOrder();
+        this.albumRank = ranks(albumOrder);
+        this.durationOrder = durationOrder();
+        this.durationRank = ranks(durationOrder);
+
+        this.jsonStart = new int[size];
+        this.jsonEnd = new int[size];
+        this.json = encodeJson();
+    }
+
+    public Path getPlaylistDir() {
+        return playlistDir;
+    }
+
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /** Returns the songs in load order; each element is built from the columns when it is read. */
+    public List<SongEntry> getSongs() {
+        return new AbstractList<SongEntry>() {
+            @Override
+            public SongEntry get(int id) {
+                return song(id);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the songs matching the filters, ordered by album and track or, when
+     * {@code sortByDuration} is set, by duration, album and track.
+     */
+    public List<SongEntry> query(String albumFilter, String artistFilter, String titlePrefix, boolean sortByDuration) {
+        return toSongs(select(albumFilter, artistFilter, titlePrefix, sortByDuration));
+    }
+
+    /** Same as {@link #query} but returns song ids; the array may be shared and must not be modified. */
+    int[] select(String albumFilter, String artistFilter, String titlePrefix, boolean sortByDuration) {
+        int[] order = sortByDuration ? durationOrder : albumOrder;
+        int[] ids = match(albumFilter, artistFilter, titlePrefix);
+        if (ids == null) {
+            return order;
+        }
+        return inOrder(ids, order, sortByDuration ? durationRank : albumRank);
+    }
+
+    /**
+     * Writes {@code ids[from..to)} as a JSON array of song objects. The objects are encoded once per
+     * catalog and stored in album order, so runs of songs that are adjacent in that order go out as
+     * one write.
+     */
+    void writeJson(int[] ids, int from, int to, OutputStream out) throws IOException {
+        out.write('[');
+        int i = from;
+        while (i < to) {
+            int first = albumRank[ids[i]];
+            int last = first;
+            int j = i + 1;
+            while (j < to && albumRank[ids[j]] == last + 1) {
+                last++;
+                j++;
+            }
+            if (i > from) {
+                out.write(',');
+            }
+            out.write(json, jsonStart[first], jsonEnd[last] - jsonStart[first]);
+            i = j;
+        }
+        out.write(']');
+    }
+
+    /**
+     * Returns the names of albums that either catalog has and whose album files differ in path,
+     * modification time or size between the two. Albums not returned hold the same songs in both.
+     */
+    Set<String> changedAlbums(SongCatalog other) {
+        Set<String> changed = new LinkedHashSet<>();
+        for (Map.Entry<String, List<FileStamp>> e : other.albumFiles.entrySet()) {
+            if (!e.getValue().equals(albumFiles.get(e.getKey()))) {
+                changed.add(e.getKey());
+            }
+        }
+        for (Map.Entry<String, List<FileStamp>> e : albumFiles.entrySet()) {
+            if (!e.getValue().equals(other.albumFiles.get(e.getKey()))) {
+                changed.add(e.getKey());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns, for each of the given album names present in this catalog, the JSON array of that
+     * album's songs in album order. Two catalogs hold the same songs for an album exactly when these
+     * arrays are equal.
+     */
+    Map<String, byte[]> albumJson(Set<String> albums) {
+        Map<String, ByteArrayOutputStream> arrays = new LinkedHashMap<>();
+        for (int rank = 0; rank < size; rank++) {
+            String album = albumNames[albumIds[albumOrder[rank]]];
+            if (!albums.contains(album)) {
+                continue;
+            }
+            ByteArrayOutputStream out = arrays.computeIfAbsent(album, k -> new ByteArrayOutputStream());
+            out.write(out.size() == 0 ? '[' : ',');
+            out.write(json, jsonStart[rank], jsonEnd[rank] - jsonStart[rank]);
+        }
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        for (Map.Entry<String, ByteArrayOutputStream> e : arrays.entrySet()) {
+            e.getValue().write(']');
+            result.put(e.getKey(), e.getValue().toByteArray());
+        }
+        return result;
+    }
+
+    /**
+     * Returns overall, per-album and per-artist duration statistics as JSON. They are computed in
+     * one pass over the duration column the first time they are asked for and then kept with the catalog.
+     */
+    byte[] statsJson() {
+        byte[] cached = statsJson;
+        if (cached == null) {
+            cached = encodeStats();
+            statsJson = cached;
+        }
+        return cached;
+    }
+
+    /** Returns {@link #statsJson()} gzip-compressed; compressed once and then kept with the catalog. */
+    byte[] statsJsonGzip() {
+        byte[] cached = statsJsonGzip;
+        if (cached == null) {
+            cached = WebServer.gzip(statsJson());
+            statsJsonGzip = cached;
+        }
+        return cached;
+    }
+
+    private byte[] encodeStats() {
+        DurationStats overall = new DurationStats();
+        DurationStats[] byAlbum = new DurationStats[albumNames.length];
+        DurationStats[] byArtist = new DurationStats[artistNames.length];
+        for (int id = 0; id < size; id++) {
+            int seconds = durationSeconds[id];
+            overall.record(seconds);
+            DurationStats album = byAlbum[albumIds[id]];
+            if (album == null) {
+                album = byAlbum[albumIds[id]] = new DurationStats();
+            }
+            album.record(seconds);
+            DurationStats artist = byArtist[artistIds[id]];
+            if (artist == null) {
+                artist = byArtist[artistIds[id]] = new DurationStats();
+            }
+            artist.record(seconds);
+        }
+
+        StringBuilder sb = new StringBuilder(256 + (byAlbum.length + byArtist.length) * 160);
+        sb.append("{\"overall\":");
+        appendStats(sb, overall);
+        sb.append(",\"albums\":");
+        appendGroups(sb, albumNames, albumSortKeys, byAlbum);
+        sb.append(",\"artists\":");
+        appendGroups(sb, artistNames, artistSortKeys(), byArtist);
+        sb.append('}');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendGroups(StringBuilder sb, String[] names, String[] sortKeys, DurationStats[] stats) {
+        sb.append('[');
+        int i = 0;
+        for (int id : nameOrder(sortKeys)) {
+            if (i++ > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"name\":\"").append(Json.escape(names[id])).append("\",\"stats\":");
+            appendStats(sb, stats[id]);
+            sb.append('}');
+        }
+        sb.append(']');
+    }
+
+    /**
+     * Returns every distinct album and artist with its number of songs and the total of their known
+     * durations, as JSON. Counted in one pass over the dictionary-id columns the first time it is
+     * asked for and then kept with the catalog.
+     */
+    byte[] facetsJson() {
+        byte[] cached = facetsJson;
+        if (cached == null) {
+            cached = encodeFacets();
+            facetsJson = cached;
+        }
+        return cached;
+    }
+
+    /** Returns {@link #facetsJson()} gzip-compressed; compressed once and then kept with the catalog. */
+    byte[] facetsJsonGzip() {
+        byte[] cached = facetsJsonGzip;
+        if (cached == null) {
+            cached = WebServer.gzip(facetsJson());
+            facetsJsonGzip = cached;
+        }
+        return cached;
+    }
+
+    private byte[] encodeFacets() {
+        int[] albumSongs = new int[albumNames.length];
+        long[] albumSeconds = new long[albumNames.length];
+        int[] artistSongs = new int[artistNames.length];
+        long[] artistSeconds = new long[artistNames.length];
+        for (int id = 0; id < size; id++) {
+            int seconds = Math.max(0, durationSeconds[id]);
+            albumSongs[albumIds[id]]++;
+            albumSeconds[albumIds[id]] += seconds;
+            artistSongs[artistIds[id]]++;
+            artistSeconds[artistIds[id]] += seconds;
+        }
+        StringBuilder sb = new StringBuilder(64 + (albumNames.length + artistNames.length) * 64);
+        sb.append("{\"albums\":");
+        appendFacets(sb, albumNames, albumSortKeys, albumSongs, albumSeconds);
+        sb.append(",\"artists\":");
+        appendFacets(sb, artistNames, artistSortKeys(), artistSongs, artistSeconds);
+        sb.append('}');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendFacets(StringBuilder sb, String[] names, String[] sortKeys, int[] songs, long[] seconds) {
+        sb.append('[');
+        int i = 0;
+        for (int id : nameOrder(sortKeys)) {
+            if (i++ > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"name\":\"").append(Json.escape(names[id]))
+                    .append("\",\"songs\":").append(songs[id])
+                    .append(",\"totalSeconds\":").append(seconds[id])
+                    .append('}');
+        }
+        sb.append(']');
+    }
+
+    private String[] artistSortKeys() {
+        String[] sortKeys = new String[artistNames.length];
+        for (int i = 0; i < artistNames.length; i++) {
+            sortKeys[i] = SongEntry.sortKey(artistNames[i]);
+        }
+        return sortKeys;
+    }
+
+    /** Ids in sort-key order, equal keys by id: each id is packed behind the rank of its key. */
+    private static int[] nameOrder(String[] sortKeys) {
+        String[] sorted = sortKeys.clone();
+        Arrays.sort(sorted, SongEntry.SORT_KEY_ORDER);
+        long[] keys = new long[sortKeys.length];
+        for (int id = 0; id < keys.length; id++) {
+            keys[id] = ((long) firstIndex(sorted, sortKeys[id]) << 32) | id;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /** Index of the first key in {@code sorted} that compares equal to {@code key}. */
+    private static int firstIndex(String[] sorted, String key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (SongEntry.SORT_KEY_ORDER.compare(sorted[mid], key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static void appendStats(StringBuilder sb, DurationStats stats) {
+        sb.append("{\"count\":").append(stats.getCount())
+                .append(",\"unknown\":").append(stats.getUnknownCount())
+                .append(",\"totalSeconds\":").append(stats.getSum());
+        if (stats.getCount() > 0) {
+            sb.append(",\"min\":").append(stats.getMin())
+                    .append(",\"max\":").append(stats.getMax())
+                    .append(",\"mean\":").append(String.format(Locale.ROOT, "%.3f", stats.getMean()));
+            for (int p : STATS_PERCENTILES) {
+                sb.append(",\"p").append(p).append("\":").append(stats.getPercentile(p));
+            }
+        }
+        sb.append('}');
+    }
+
+    private SongEntry song(int id) {
+        int album = albumIds[id];
+        int artist = artistIds[id];
+        return new SongEntry(albumDictionaryIds[album], albumNames[album], albumSearchKeys[album], albumSortKeys[album],
+                trackNumbers[id], title(id), artistDictionaryIds[artist], artistNames[artist], artistSearchKeys[artist],
+                durationTexts[durationTextIds[id]], durationSeconds[id]);
+    }
+
+    private String title(int id) {
+        return new String(titles, titleOffsets[id], titleOffsets[id + 1] - titleOffsets[id], StandardCharsets.UTF_8);
+    }
+
+    private int[] match(String albumFilter, String artistFilter, String titlePrefix) {
+        String album = PlaylistService.normalize(albumFilter);
+        String artist = PlaylistService.normalize(artistFilter);
+        String prefix = PlaylistService.normalize(titlePrefix);
+
+        int[] ids = null;
+        if (album != null) {
+            ids = albumIndex.matchContains(album);
+        }
+        if (artist != null) {
+            int[] artistIds = artistIndex.matchContains(artist);
+            ids = ids == null ? artistIds : TermIndex.intersect(ids, artistIds);
+        }
+        if (prefix != null) {
+            int[] titleIds = titleIndex.matchPrefix(prefix);
+            ids = ids == null ? titleIds : TermIndex.intersect(ids, titleIds);
+        }
+        return ids;
+    }
+
+    private static int[] inOrder(int[] ids, int[] order, int[] rank) {
+        int[] result = new int[ids.length];
+        if (ids.length < order.length / 64) {
+            for (int i = 0; i < ids.length; i++) {
+                result[i] = rank[ids[i]];
+            }
+            Arrays.sort(result);
+            for (int i = 0; i < result.length; i++) {
+                result[i] = order[result[i]];
+            }
+            return result;
+        }
+        BitSet ranks = new BitSet(order.length);
+        for (int id : ids) {
+            ranks.set(rank[id]);
+        }
+        int n = 0;
+        for (int r = ranks.nextSetBit(0); r >= 0; r = ranks.nextSetBit(r + 1)) {
+            result[n++] = order[r];
+        }
+        return result;
+    }
+
+    private byte[] encodeJson() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size * 96);
+        StringBuilder sb = new StringBuilder(256);
+        for (int rank = 0; rank < size; rank++) {
+            if (rank > 0) {
+                out.write(',');
+            }
+            sb.setLength(0);
+            Json.appendSong(sb, song(albumOrder[rank]));
+            byte[] fragment = sb.toString().getBytes(StandardCharsets.UTF_8);
+            jsonStart[rank] = out.size();
+            out.write(fragment, 0, fragment.length);
+            jsonEnd[rank] = out.size();
+        }
+        return out.toByteArray();
+    }
+
+    private List<SongEntry> toSongs(int[] ids) {
+        List<SongEntry> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            result.add(song(id));
+        }
+        return result;
+    }
+
+    /**
+     * Album sort key, then track number, then load order: a counting sort on the rank of each
+     * song's album followed by a sort of (track, id) pairs within every album run.
+     */
+    private int[] albumOrder() {
+        Integer[] byKey = new Integer[albumNames.length];
+        for (int i = 0; i < byKey.length; i++) {
+            byKey[i] = i;
+        }
+        Arrays.sort(byKey, (a, b) -> SongEntry.SORT_KEY_ORDER.compare(albumSortKeys[a], albumSortKeys[b]));
+        int[] keyRank = new int[albumNames.length];
+        int distinct = 0;
+        for (int i = 0; i < byKey.length; i++) {
+            if (i > 0 && SongEntry.SORT_KEY_ORDER.compare(albumSortKeys[byKey[i - 1]], albumSortKeys[byKey[i]]) != 0) {
+                distinct++;
+            }
+            keyRank[byKey[i]] = distinct;
+        }
+
+        int[] start = new int[distinct + 2];
+        for (int id = 0; id < size; id++) {
+            start[keyRank[albumIds[id]] + 1]++;
+        }
+        for (int i = 1; i < start.length; i++) {
+            start[i] += start[i - 1];
+        }
+        long[] keys = new long[size];
+        int[] next = Arrays.copyOf(start, start.length);
+        for (int id = 0; id < size; id++) {
+            keys[next[keyRank[albumIds[id]]]++] = ((long) trackNumbers[id] << 32) | id;
+        }
+        int[] order = new int[size];
+        for (int group = 0; group + 1 < start.length; group++) {
+            Arrays.sort(keys, start[group], start[group + 1]);
+        }
+        for (int i = 0; i < size; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /** Duration seconds with unknown durations last, then album order. */
+    private int[] durationOrder() {
+        long[] keys = new long[size];
+        for (int rank = 0; rank < size; rank++) {
+            int id = albumOrder[rank];
+            long seconds = durationSeconds[id] >= 0 ? durationSeconds[id] : Integer.MAX_VALUE;
+            keys[rank] = (seconds << 32) | rank;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = albumOrder[(int) keys[i]];
+        }
+        return order;
+    }
+
+    private static List<String> column(String[] dictionary, int[] ids) {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int id) {
+                return dictionary[ids[id]];
+            }
+
+            @Override
+            public int size() {
+                return ids.length;
+            }
+        };
+    }
+
+    private static int[] ranks(int[] order) {
+        int[] rank = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            rank[order[i]] = i;
+        }
+        return rank;
+    }
+
+    /** Path, modification time and size of one album file, as loaded into the catalog. */
+    private static final class FileStamp {
+        private final Path path;
+        private final FileTime lastModified;
+        private final long size;
+
+        FileStamp(AlbumColumns album) {
+            this.path = album.path;
+            this.lastModified = album.lastModified;
+            this.size = album.size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileStamp)) {
+                return false;
+            }
+            FileStamp other = (FileStamp) o;
+            return path.equals(other.path) && lastModified.equals(other.lastModified) && size == other.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, lastModified, size);
+        }
+    }
+
+    /**
+     * Assigns dense ids to distinct values in first-seen order. Values that already carry an id
+     * from the service's {@link StringDictionary} are grouped by that id without hashing the string.
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private final TermIndex.IntList sourceIds = new TermIndex.IntList();
+        private int[] bySourceId = new int[0];
+
+        int idOf(String value, int sourceId) {
+            if (sourceId >= 0) {
+                if (sourceId >= bySourceId.length) {
+                    bySourceId = Arrays.copyOf(bySourceId, Math.max(sourceId + 1, bySourceId.length * 2));
+                }
+                int id = bySourceId[sourceId] - 1;
+                if (id < 0) {
+                    id = add(value, sourceId);
+                    bySourceId[sourceId] = id + 1;
+                }
+                return id;
+            }
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = add(value, -1);
+                ids.put(value, id);
+            }
+            return id;
+        }
+
+        String[] values() {
+            return values.toArray(new String[0]);
+        }
+
+        int[] sourceIds() {
+            return sourceIds.toArray();
+        }
+
+        private int add(String value, int sourceId) {
+            values.add(value);
+            sourceIds.add(sourceId);
+            return values.size() - 1;
+        }
+    }
+}
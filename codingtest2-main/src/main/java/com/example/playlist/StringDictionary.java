@@ -0,0 +1,62 @@
+package com.example.playlist;
+
+import com.example.playlist.model.SongEntry;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of distinct album or artist names shared by every album a service loads. Each value is
+ * kept once, together with its search and sort keys, under a dense id that stays the same while
+ * the value is in the pool, so songs can be compared and grouped by id instead of by string. Ids
+ * of values dropped by {@link #retainAll} are handed out again.
+ */
+final class StringDictionary {
+    private final Map<String, Term> terms = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Queue<Integer> freeIds = new ConcurrentLinkedQueue<>();
+
+    Term intern(String value) {
+        Term term = terms.get(value);
+        if (term != null) {
+            return term;
+        }
+        return terms.computeIfAbsent(value, v -> {
+            Integer free = freeIds.poll();
+            return new Term(free != null ? free : nextId.getAndIncrement(), v);
+        });
+    }
+
+    /** Drops every term not in {@code live}; callers must make sure nothing interns meanwhile. */
+    void retainAll(Set<Term> live) {
+        terms.values().removeIf(term -> {
+            if (live.contains(term)) {
+                return false;
+            }
+            freeIds.add(term.id);
+            return true;
+        });
+    }
+
+    int size() {
+        return nextId.get();
+    }
+
+    static final class Term {
+        final int id;
+        final String value;
+        final String searchKey;
+        final String sortKey;
+
+        Term(int id, String value) {
+            this.id = id;
+            this.value = value;
+            this.searchKey = SongEntry.searchKey(value);
+            this.sortKey = SongEntry.sortKey(value);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.playlist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Substring index over one normalized song field. Distinct values are indexed by their
+ * character trigrams; each value keeps the ascending ids of the songs that carry it.
+ */
+final class TermIndex {
+    private static final int[] NONE = new int[0];
+
+    private final String[] values;
+    private final int[][] songsByValue;
+    private final Map<Long, int[]> trigramPostings;
+
+    private TermIndex(String[] values, int[][] songsByValue, Map<Long, int[]> trigramPostings) {
+        this.values = values;
+        this.songsByValue = songsByValue;
+        this.trigramPostings = trigramPostings;
+    }
+
+    static TermIndex build(List<String> normalizedValues) {
+        Map<String, IntList> songsByValue = new LinkedHashMap<>();
+        for (int songId = 0; songId < normalizedValues.size(); songId++) {
+            String value = normalizedValues.get(songId);
+            if (value != null) {
+                songsByValue.computeIfAbsent(value, k -> new IntList()).add(songId);
+            }
+        }
+
+        String[] values = songsByValue.keySet().toArray(new String[0]);
+        int[][] postings = new int[values.length][];
+        Map<Long, IntList> trigrams = new HashMap<>();
+        for (int valueId = 0; valueId < values.length; valueId++) {
+            String value = values[valueId];
+            postings[valueId] = songsByValue.get(value).toArray();
+            for (int i = 0; i + 3 <= value.length(); i++) {
+                IntList ids = trigrams.computeIfAbsent(trigram(value, i), k -> new IntList());
+                if (ids.size() == 0 || ids.last() != valueId) {
+                    ids.add(valueId);
+                }
+            }
+        }
+        Map<Long, int[]> trigramPostings = new HashMap<>(trigrams.size() * 2);
+        for (Map.Entry<Long, IntList> entry : trigrams.entrySet()) {
+            trigramPostings.put(entry.getKey(), entry.getValue().toArray());
+        }
+        return new TermIndex(values, postings, trigramPostings);
+    }
+
+    /** Returns the ascending ids of songs whose value contains {@code query}, which must already be normalized. */
+    int[] matchContains(String query) {
+        int[] candidates = candidateValues(query);
+        List<int[]> matches = new ArrayList<>();
+        int total = 0;
+        for (int valueId : candidates) {
+            if (values[valueId].contains(query)) {
+                matches.add(songsByValue[valueId]);
+                total += songsByValue[valueId].length;
+            }
+        }
+        if (matches.size() == 1) {
+            return matches.get(0);
+        }
+        int[] songIds = new int[total];
+        int pos = 0;
+        for (int[] ids : matches) {
+            System.arraycopy(ids, 0, songIds, pos, ids.length);
+            pos += ids.length;
+        }
+        Arrays.sort(songIds);
+        return songIds;
+    }
+
+    private int[] candidateValues(String query) {
+        if (query.length() < 3) {
+            int[] all = new int[values.length];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        int[] candidates = null;
+        for (int i = 0; i + 3 <= query.length(); i++) {
+            int[] posting = trigramPostings.get(trigram(query, i));
+            if (posting == null) {
+                return NONE;
+            }
+            candidates = candidates == null ? posting : intersect(candidates, posting);
+            if (candidates.length == 0) {
+                return NONE;
+            }
+        }
+        return candidates;
+    }
+
+    static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    static final class IntList {
+        private int[] items = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = value;
+        }
+
+        int last() {
+            return items[size - 1];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(items, size);
+        }
+    }
+}
@@ -1,33 +1,101 @@
 package com.example.playlist;
 
-import com.example.playlist.model.SongEntry;
-
+import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
 
 public class WebServer {
+    static final int GZIP_THRESHOLD = 1024;
+
     public static void main(String[] args) throws Exception {
         int port = getPort();
-        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
-        PlaylistService service = new PlaylistService();
+        int backlog = getIntEnv("HTTP_BACKLOG", 1024, 0);
+        int maxConcurrent = getIntEnv("HTTP_MAX_CONCURRENT", 0, 0);
+        PlaylistService service = new PlaylistService(getLoadThreads());
+        configureSnapshot(service);
+        CatalogCache catalogs = new CatalogCache(service, getIntEnv("CATALOG_CACHE_ENTRIES", CatalogCache.DEFAULT_MAX_ENTRIES, 1));
+        ResponseCache responses = new ResponseCache(getResponseCacheBytes());
+        catalogs.addListener(responses);
+        int retryAfter = getIntEnv("HTTP_RETRY_AFTER", 1, 0);
+        CatalogEvents events = new CatalogEvents(catalogs, getIntEnv("HTTP_MAX_EVENT_STREAMS", 256, 0));
+        catalogs.addListener(events);
+
+        if ("nio".equalsIgnoreCase(nullToEmpty(System.getenv("HTTP_ENGINE")).trim())) {
+            long idleMillis = getIntEnv("HTTP_KEEP_ALIVE_TIMEOUT", 30, 1) * 1000L;
+            NioServer nio = new NioServer(new InetSocketAddress(port), backlog, service, catalogs, responses, events,
+                    createExecutor(), maxConcurrent, idleMillis);
+            System.out.println("Engine: nio (serves /, /api/songs, /api/songs/events, /api/stats and /api/facets)");
+            System.out.println("Listening on port " + port);
+            nio.start();
+            return;
+        }
+
+        configureConnections();
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), backlog);
 
-        server.createContext("/", new RootHandler());
-        server.createContext("/api/songs", new SongsHandler(service));
-        server.setExecutor(null);
+        Executor executor = createExecutor();
+        ConcurrencyLimit limit = maxConcurrent > 0 ? new ConcurrencyLimit(executor, maxConcurrent, retryAfter) : null;
+        Executor forks = limit != null ? limit::fork : executor != null ? executor : Runnable::run;
+
+        List<HttpContext> contexts = new ArrayList<>();
+        contexts.add(server.createContext("/", new RootHandler()));
+        contexts.add(server.createContext("/api/songs", new SongsHandler(service, catalogs, responses)));
+        contexts.add(server.createContext("/api/songs/batch", new BatchHandler(service, catalogs, forks)));
+        contexts.add(server.createContext("/api/songs/events", new EventsHandler(service, catalogs, events, retryAfter)));
+        contexts.add(server.createContext("/api/stats", new CatalogSummaryHandler(service, catalogs, "stats", SongCatalog::statsJson, SongCatalog::statsJsonGzip)));
+        contexts.add(server.createContext("/api/facets", new CatalogSummaryHandler(service, catalogs, "facets", SongCatalog::facetsJson, SongCatalog::facetsJsonGzip)));
+        contexts.add(server.createContext("/api/cache", new CacheStatsHandler(responses)));
+        if (limit != null) {
+            for (HttpContext context : contexts) {
+                context.getFilters().add(limit.filter());
+            }
+            executor = limit;
+            System.out.println("Max concurrent requests: " + maxConcurrent);
+        }
+        server.setExecutor(executor);
         System.out.println("Listening on port " + port);
         server.start();
     }
@@ -38,6 +106,106 @@ public class WebServer {
         try { return Integer.parseInt(s); } catch (NumberFormatException e) { return 8080; }
     }
 
+    /**
+     * Maps the connection environment variables onto the JDK server's system properties, which it
+     * reads once when the first server is created. Timeouts are in seconds; properties given on the
+     * command line win.
+     */
+    private static void configureConnections() {
+        setServerProperty("sun.net.httpserver.maxReqTime", "HTTP_REQUEST_TIMEOUT");
+        setServerProperty("sun.net.httpserver.maxRspTime", "HTTP_RESPONSE_TIMEOUT");
+        setServerProperty("sun.net.httpserver.idleInterval", "HTTP_KEEP_ALIVE_TIMEOUT");
+        setServerProperty("sun.net.httpserver.maxIdleConnections", "HTTP_MAX_IDLE_CONNECTIONS");
+    }
+
+    private static void setServerProperty(String property, String env) {
+        String s = System.getenv(env);
+        if (s == null || s.isBlank() || System.getProperty(property) != null) return;
+        try {
+            System.setProperty(property, Long.toString(Long.parseLong(s.trim())));
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring " + env + "=" + s);
+        }
+    }
+
+    static int getIntEnv(String name, int fallback, int min) {
+        String s = System.getenv(name);
+        if (s == null || s.isBlank()) return fallback;
+        try { return Math.max(min, Integer.parseInt(s.trim())); } catch (NumberFormatException e) { return fallback; }
+    }
+
+    static Executor createExecutor() {
+        String mode = nullToEmpty(System.getenv("HTTP_EXECUTOR")).trim().toLowerCase(Locale.ROOT);
+        if ("dispatcher".equals(mode)) {
+            System.out.println("Executor: dispatcher thread");
+            return null;
+        }
+        if (!"pool".equals(mode)) {
+            Executor virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                System.out.println("Executor: virtual thread per request");
+                return virtual;
+            }
+        }
+        int threads = getHttpThreads();
+        System.out.println("Executor: platform pool of " + threads + " threads");
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "http-worker-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static Executor newVirtualThreadExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static int getHttpThreads() {
+        int fallback = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        String s = System.getenv("HTTP_THREADS");
+        if (s == null || s.isBlank()) return fallback;
+        try { return Math.max(1, Integer.parseInt(s)); } catch (NumberFormatException e) { return fallback; }
+    }
+
+    private static long getResponseCacheBytes() {
+        long fallback = 32L << 20;
+        String s = System.getenv("RESPONSE_CACHE_BYTES");
+        if (s == null || s.isBlank()) return fallback;
+        try { return Math.max(0, Long.parseLong(s)); } catch (NumberFormatException e) { return fallback; }
+    }
+
+    private static void configureSnapshot(PlaylistService service) {
+        String s = System.getenv("PLAYLIST_SNAPSHOT");
+        if (s == null || s.isBlank()) return;
+        service.useSnapshot(Paths.get(s.trim()));
+        Runnable save = () -> {
+            try {
+                service.saveSnapshot();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to write snapshot " + s + ": " + e.getMessage());
+            }
+        };
+        ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshot-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        saver.scheduleWithFixedDelay(save, 60, 60, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(save, "snapshot-writer-exit"));
+        System.out.println("Snapshot: " + s.trim());
+    }
+
+    private static int getLoadThreads() {
+        String s = System.getenv("PLAYLIST_LOAD_THREADS");
+        if (s == null || s.isBlank()) return 1;
+        try { return Math.max(1, Integer.parseInt(s)); } catch (NumberFormatException e) { return 1; }
+    }
+
     private static class RootHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
@@ -45,14 +213,19 @@ public class WebServer {
                 send(exchange, 405, "Method Not Allowed", "text/plain; charset=utf-8");
                 return;
             }
-            String html = INDEX_HTML;
-            send(exchange, 200, html, "text/html; charset=utf-8");
+            send(exchange, 200, INDEX_HTML_BYTES, INDEX_HTML_GZIP, "text/html; charset=utf-8");
         }
     }
 
     private static class SongsHandler implements HttpHandler {
         private final PlaylistService service;
-        SongsHandler(PlaylistService service) { this.service = service; }
+        private final CatalogCache catalogs;
+        private final ResponseCache responses;
+        SongsHandler(PlaylistService service, CatalogCache catalogs, ResponseCache responses) {
+            this.service = service;
+            this.catalogs = catalogs;
+            this.responses = responses;
+        }
 
         @Override
         public void handle(HttpExchange exchange) throws IOException {
@@ -65,20 +238,534 @@ public class WebServer {
             boolean recursive = parseBool(q.get("recursive"));
             boolean sortDuration = "duration".equalsIgnoreCase(nullToEmpty(q.get("sort")));
 
+            int limit;
+            int offset;
+            try {
+                limit = parsePageParam("limit", q.get("limit"), -1);
+                offset = q.containsKey("cursor") ? decodeCursor(q.get("cursor")) : parsePageParam("offset", q.get("offset"), 0);
+            } catch (IllegalArgumentException ex) {
+                send(exchange, 400, jsonError(ex.getMessage()), "application/json; charset=utf-8");
+                return;
+            }
+
+            SongCatalog catalog;
+            try {
+                catalog = catalogs.get(playlistDir, recursive);
+            } catch (IOException ex) {
+                send(exchange, 500, jsonError(ex.getMessage()), "application/json; charset=utf-8");
+                return;
+            }
+            String query = queryKey(catalog, q.get("album"), q.get("artist"), q.get("titlePrefix"), sortDuration, limit, offset);
+            String etag = songsEtag(catalogs.getEpoch(), catalog, query);
+            if (matchesEtag(exchange, etag)) {
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            Headers h = exchange.getResponseHeaders();
+            h.set("ETag", etag);
+            ResponseCache.Entry cached = responses.get(query, catalog);
+            if (cached != null) {
+                h.set("X-Cache", "HIT");
+                h.set("X-Total-Count", Integer.toString(cached.total));
+                if (cached.nextCursor != null) {
+                    h.set("X-Next-Cursor", cached.nextCursor);
+                }
+                byte[] gzipped = null;
+                if (cached.body.length >= GZIP_THRESHOLD && acceptsGzip(exchange)) {
+                    gzipped = cached.gzipped;
+                    if (gzipped == null) {
+                        gzipped = gzip(cached.body);
+                        responses.addCompressed(query, cached, gzipped);
+                    }
+                }
+                send(exchange, 200, cached.body, gzipped, "application/json; charset=utf-8");
+                return;
+            }
+
+            int[] ids = catalog.select(q.get("album"), q.get("artist"), q.get("titlePrefix"), sortDuration);
+            int total = ids.length;
+            int from = Math.min(offset, total);
+            int to = limit < 0 ? total : (int) Math.min((long) from + limit, total);
+            String nextCursor = limit >= 0 && to < total ? encodeCursor(to) : null;
+
+            h.set("Content-Type", "application/json; charset=utf-8");
+            h.set("X-Cache", "MISS");
+            h.set("X-Total-Count", Integer.toString(total));
+            if (nextCursor != null) {
+                h.set("X-Next-Cursor", nextCursor);
+            }
+            OutputStream compressing = new CompressingResponseStream(exchange, 200, acceptsGzip(exchange));
+            CapturingOutputStream body = new CapturingOutputStream(compressing, responses.getMaxEntryBytes());
+            try (OutputStream out = new BufferedOutputStream(body, 16 * 1024)) {
+                catalog.writeJson(ids, from, to, out);
+            }
+            byte[] captured = body.captured();
+            if (captured != null) {
+                responses.put(query, catalog, captured, total, nextCursor);
+            }
+        }
+    }
+
+    /**
+     * Runs several filter sets against several playlist directories in one request. Parameters
+     * (query string or form-encoded POST body): repeated {@code playlist}, {@code recursive}, and one
+     * {@code q.<name>} per filter set whose value is itself a query string such as
+     * {@code album=Best&sort=duration&limit=20}. Each directory is loaded once through the shared
+     * catalog cache. Results are streamed in order: while one is written, the selections of the next
+     * {@value #FORK_AHEAD} run on the request executor, so only a few are held at a time. Work the
+     * executor has no room for is done by the request's own thread.
+     */
+    private static class BatchHandler implements HttpHandler {
+        private static final int MAX_QUERIES = 256;
+        private static final int FORK_AHEAD = 4;
+        private static final int MAX_BODY_BYTES = 64 * 1024;
+        private final PlaylistService service;
+        private final CatalogCache catalogs;
+        private final Executor forks;
+        BatchHandler(PlaylistService service, CatalogCache catalogs, Executor forks) {
+            this.service = service;
+            this.catalogs = catalogs;
+            this.forks = forks;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String raw;
+            if ("GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                raw = exchange.getRequestURI().getRawQuery();
+            } else if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                byte[] bytes;
+                try (InputStream in = exchange.getRequestBody()) {
+                    bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+                }
+                if (bytes.length > MAX_BODY_BYTES) {
+                    send(exchange, 413, jsonError("Request body exceeds " + MAX_BODY_BYTES + " bytes"), "application/json; charset=utf-8");
+                    return;
+                }
+                raw = new String(bytes, StandardCharsets.UTF_8).trim();
+            } else {
+                send(exchange, 405, jsonError("Method Not Allowed"), "application/json; charset=utf-8");
+                return;
+            }
+            Map<String, List<String>> params = parseQueryMulti(raw);
+            List<String> playlists = new ArrayList<>(new LinkedHashSet<>(params.getOrDefault("playlist", List.of("playlist"))));
+            List<String> recursiveValues = params.getOrDefault("recursive", List.of());
+            boolean recursive = !recursiveValues.isEmpty() && parseBool(recursiveValues.get(recursiveValues.size() - 1));
+
+            Map<String, BatchQuery> queries = new LinkedHashMap<>();
+            try {
+                for (Map.Entry<String, List<String>> e : params.entrySet()) {
+                    if (e.getKey().startsWith("q.") && e.getKey().length() > 2) {
+                        List<String> values = e.getValue();
+                        queries.put(e.getKey().substring(2), BatchQuery.parse(parseQuery(values.get(values.size() - 1))));
+                    }
+                }
+                if (queries.isEmpty()) {
+                    queries.put("all", BatchQuery.parse(Map.of()));
+                }
+                if ((long) playlists.size() * queries.size() > MAX_QUERIES) {
+                    throw new IllegalArgumentException("Too many queries: at most " + MAX_QUERIES + " playlist and filter combinations");
+                }
+            } catch (IllegalArgumentException ex) {
+                send(exchange, 400, jsonError(ex.getMessage()), "application/json; charset=utf-8");
+                return;
+            }
+
+            Map<String, FutureTask<SongCatalog>> loads = new LinkedHashMap<>();
+            for (String playlist : playlists) {
+                Path dir = service.resolvePlaylistDir(playlist);
+                loads.put(playlist, fork(new FutureTask<>(() -> catalogs.get(dir, recursive))));
+            }
+            Lookahead selections = new Lookahead(playlists, queries, loads);
+
+            Headers h = exchange.getResponseHeaders();
+            h.set("Content-Type", "application/json; charset=utf-8");
+            OutputStream body = new CompressingResponseStream(exchange, 200, acceptsGzip(exchange));
+            try (OutputStream out = new BufferedOutputStream(body, 16 * 1024)) {
+                out.write('{');
+                boolean firstPlaylist = true;
+                for (String playlist : playlists) {
+                    if (!firstPlaylist) out.write(',');
+                    firstPlaylist = false;
+                    writeJsonKey(out, playlist);
+                    SongCatalog catalog;
+                    try {
+                        catalog = join(loads.get(playlist));
+                    } catch (ExecutionException ex) {
+                        out.write(jsonError(failure(ex)).getBytes(StandardCharsets.UTF_8));
+                        continue;
+                    }
+                    out.write('{');
+                    boolean firstQuery = true;
+                    for (Map.Entry<String, BatchQuery> e : queries.entrySet()) {
+                        if (!firstQuery) out.write(',');
+                        firstQuery = false;
+                        writeJsonKey(out, e.getKey());
+                        int[] ids;
+                        try {
+                            ids = join(selections.next());
+                        } catch (ExecutionException ex) {
+                            out.write(jsonError(failure(ex)).getBytes(StandardCharsets.UTF_8));
+                            continue;
+                        }
+                        e.getValue().write(catalog, ids, out);
+                    }
+                    out.write('}');
+                }
+                out.write('}');
+            }
+        }
+
+        /**
+         * Hands out the selections of every playlist and filter combination in response order,
+         * keeping the next {@value #FORK_AHEAD} forked. Playlists that failed to load are skipped.
+         */
+        private final class Lookahead {
+            private final Iterator<String> playlists;
+            private final Collection<BatchQuery> queries;
+            private final Map<String, FutureTask<SongCatalog>> loads;
+            private final ArrayDeque<FutureTask<int[]>> pending = new ArrayDeque<>();
+            private Iterator<BatchQuery> current = Collections.emptyIterator();
+            private SongCatalog catalog;
+
+            Lookahead(List<String> playlists, Map<String, BatchQuery> queries, Map<String, FutureTask<SongCatalog>> loads) {
+                this.playlists = playlists.iterator();
+                this.queries = queries.values();
+                this.loads = loads;
+            }
+
+            FutureTask<int[]> next() {
+                while (pending.size() <= FORK_AHEAD && advance()) {
+                    BatchQuery query = current.next();
+                    SongCatalog target = catalog;
+                    pending.add(fork(new FutureTask<>(() -> query.select(target))));
+                }
+                return pending.poll();
+            }
+
+            private boolean advance() {
+                while (!current.hasNext()) {
+                    if (!playlists.hasNext()) {
+                        return false;
+                    }
+                    try {
+                        catalog = join(loads.get(playlists.next()));
+                        current = queries.iterator();
+                    } catch (ExecutionException ex) {
+                        // reported by the writer
+                    }
+                }
+                return true;
+            }
+        }
+
+        private <T> FutureTask<T> fork(FutureTask<T> task) {
+            try {
+                forks.execute(task);
+            } catch (RejectedExecutionException ex) {
+                // left for join() to run on this thread
+            }
+            return task;
+        }
+
+        /** Runs {@code task} here unless a worker already started it, then waits for its result. */
+        private static <T> T join(FutureTask<T> task) throws ExecutionException {
+            task.run();
+            try {
+                return task.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ExecutionException(ex);
+            }
+        }
+
+        private static String failure(ExecutionException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            return cause.getMessage() != null ? cause.getMessage() : cause.toString();
+        }
+
+        private static void writeJsonKey(OutputStream out, String key) throws IOException {
+            out.write(('"' + Json.escape(key) + "\":").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static class BatchQuery {
+        final String album;
+        final String artist;
+        final String titlePrefix;
+        final boolean sortDuration;
+        final int limit;
+        final int offset;
+
+        private BatchQuery(String album, String artist, String titlePrefix, boolean sortDuration, int limit, int offset) {
+            this.album = album;
+            this.artist = artist;
+            this.titlePrefix = titlePrefix;
+            this.sortDuration = sortDuration;
+            this.limit = limit;
+            this.offset = offset;
+        }
+
+        static BatchQuery parse(Map<String, String> q) {
+            int limit = parsePageParam("limit", q.get("limit"), -1);
+            int offset = q.containsKey("cursor") ? decodeCursor(q.get("cursor")) : parsePageParam("offset", q.get("offset"), 0);
+            boolean sortDuration = "duration".equalsIgnoreCase(nullToEmpty(q.get("sort")));
+            return new BatchQuery(q.get("album"), q.get("artist"), q.get("titlePrefix"), sortDuration, limit, offset);
+        }
+
+        int[] select(SongCatalog catalog) {
+            return catalog.select(album, artist, titlePrefix, sortDuration);
+        }
+
+        /** Writes the total, the next cursor if any, and the requested page of {@code ids}. */
+        void write(SongCatalog catalog, int[] ids, OutputStream out) throws IOException {
+            int total = ids.length;
+            int from = Math.min(offset, total);
+            int to = limit < 0 ? total : (int) Math.min((long) from + limit, total);
+            out.write(("{\"total\":" + total).getBytes(StandardCharsets.UTF_8));
+            if (limit >= 0 && to < total) {
+                out.write((",\"nextCursor\":\"" + encodeCursor(to) + "\"").getBytes(StandardCharsets.UTF_8));
+            }
+            out.write(",\"songs\":".getBytes(StandardCharsets.UTF_8));
+            catalog.writeJson(ids, from, to, out);
+            out.write('}');
+        }
+    }
+
+    /**
+     * Server-sent event stream of album-level changes to one playlist directory. The stream opens
+     * with a {@code ready} event carrying the current catalog version, then sends one {@code album}
+     * event per added, changed or removed album; {@code reset} means events were dropped and the
+     * client should reload. The handler returns once the headers are sent and the events writer
+     * thread owns the stream from then on; beyond the stream cap clients get {@code 503}.
+     */
+    private static class EventsHandler implements HttpHandler {
+        private final PlaylistService service;
+        private final CatalogCache catalogs;
+        private final CatalogEvents events;
+        private final String retryAfter;
+        EventsHandler(PlaylistService service, CatalogCache catalogs, CatalogEvents events, int retryAfterSeconds) {
+            this.service = service;
+            this.catalogs = catalogs;
+            this.events = events;
+            this.retryAfter = Integer.toString(retryAfterSeconds);
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                send(exchange, 405, jsonError("Method Not Allowed"), "application/json; charset=utf-8");
+                return;
+            }
+            Map<String, String> q = parseQuery(exchange.getRequestURI());
+            Path playlistDir = service.resolvePlaylistDir(q.get("playlist"));
+            boolean recursive = parseBool(q.get("recursive"));
+
+            CatalogEvents.Subscription subscription = events.subscribe(playlistDir, recursive);
+            if (subscription == null) {
+                exchange.getResponseHeaders().set("Retry-After", retryAfter);
+                send(exchange, 503, jsonError("Too many event streams"), "application/json; charset=utf-8");
+                return;
+            }
+            boolean started = false;
+            try {
+                SongCatalog catalog;
+                try {
+                    catalog = catalogs.get(playlistDir, recursive);
+                } catch (IOException ex) {
+                    send(exchange, 500, jsonError(ex.getMessage()), "application/json; charset=utf-8");
+                    return;
+                }
+                Headers h = exchange.getResponseHeaders();
+                h.set("Content-Type", "text/event-stream; charset=utf-8");
+                h.set("Cache-Control", "no-cache");
+                exchange.sendResponseHeaders(200, 0);
+                events.start(subscription, exchange.getResponseBody(), catalog.getVersion());
+                started = true;
+            } finally {
+                if (!started) {
+                    events.unsubscribe(subscription);
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves a JSON summary of one playlist that the catalog builds once per version, such as the
+     * duration statistics or the album and artist facets.
+     */
+    private static class CatalogSummaryHandler implements HttpHandler {
+        private final PlaylistService service;
+        private final CatalogCache catalogs;
+        private final String name;
+        private final Function<SongCatalog, byte[]> summary;
+        private final Function<SongCatalog, byte[]> compressed;
+        CatalogSummaryHandler(PlaylistService service, CatalogCache catalogs, String name,
+                              Function<SongCatalog, byte[]> summary, Function<SongCatalog, byte[]> compressed) {
+            this.service = service;
+            this.catalogs = catalogs;
+            this.name = name;
+            this.summary = summary;
+            this.compressed = compressed;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                send(exchange, 405, jsonError("Method Not Allowed"), "application/json; charset=utf-8");
+                return;
+            }
+            Map<String, String> q = parseQuery(exchange.getRequestURI());
+            Path playlistDir = service.resolvePlaylistDir(q.get("playlist"));
+            boolean recursive = parseBool(q.get("recursive"));
+            SongCatalog catalog;
             try {
-                List<SongEntry> songs = service.loadSongs(playlistDir, recursive);
-                songs = service.filterSongs(songs, q.get("album"), q.get("artist"), q.get("titlePrefix"));
-                songs = service.sortSongs(songs, sortDuration);
-                send(exchange, 200, toJson(songs), "application/json; charset=utf-8");
+                catalog = catalogs.get(playlistDir, recursive);
             } catch (IOException ex) {
                 send(exchange, 500, jsonError(ex.getMessage()), "application/json; charset=utf-8");
+                return;
+            }
+            String etag = "W/\"" + catalogs.getEpoch() + "-" + catalog.getVersion() + "-" + name + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (matchesEtag(exchange, etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
             }
+            byte[] body = summary.apply(catalog);
+            byte[] gzipped = body.length >= GZIP_THRESHOLD && acceptsGzip(exchange) ? compressed.apply(catalog) : null;
+            send(exchange, 200, body, gzipped, "application/json; charset=utf-8");
+        }
+    }
+
+    /**
+     * Caps the number of requests queued or running on the executor. A permit is taken when the
+     * server hands a connection to the executor, so requests past the cap never wait in its queue:
+     * they run on a single overload thread where {@link #filter} answers {@code 503} with
+     * {@code Retry-After}. If that thread falls behind as well, further connections are closed.
+     */
+    private static class ConcurrencyLimit implements Executor {
+        private static final int OVERLOAD_QUEUE = 1024;
+        private static final ThreadLocal<Boolean> OVERLOADED = new ThreadLocal<>();
+        private final Executor delegate;
+        private final Semaphore permits;
+        private final Executor overload;
+        private final Filter filter;
+        ConcurrencyLimit(Executor delegate, int maxConcurrent, int retryAfterSeconds) {
+            this.delegate = delegate != null ? delegate : Runnable::run;
+            this.permits = new Semaphore(maxConcurrent);
+            this.overload = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(OVERLOAD_QUEUE), r -> {
+                Thread t = new Thread(r, "http-overload");
+                t.setDaemon(true);
+                return t;
+            });
+            String retryAfter = Integer.toString(retryAfterSeconds);
+            this.filter = new Filter() {
+                @Override
+                public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                    if (OVERLOADED.get() == null) {
+                        chain.doFilter(exchange);
+                        return;
+                    }
+                    exchange.getResponseHeaders().set("Retry-After", retryAfter);
+                    send(exchange, 503, jsonError("Server busy"), "application/json; charset=utf-8");
+                }
+
+                @Override
+                public String description() {
+                    return "At most " + maxConcurrent + " concurrent requests";
+                }
+            };
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (!permits.tryAcquire()) {
+                overload.execute(() -> {
+                    OVERLOADED.set(Boolean.TRUE);
+                    try {
+                        task.run();
+                    } finally {
+                        OVERLOADED.remove();
+                    }
+                });
+                return;
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RuntimeException ex) {
+                permits.release();
+                throw ex;
+            }
+        }
+
+        /**
+         * Runs work split off a request on the executor if a permit is free, and otherwise throws
+         * {@link RejectedExecutionException} so the request's own thread does it.
+         */
+        void fork(Runnable task) {
+            if (!permits.tryAcquire()) {
+                throw new RejectedExecutionException("Server busy");
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RuntimeException ex) {
+                permits.release();
+                throw ex;
+            }
+        }
+
+        /** Answers requests that arrived past the cap; must be installed on every context. */
+        Filter filter() {
+            return filter;
+        }
+    }
+
+    private static class CacheStatsHandler implements HttpHandler {
+        private final ResponseCache responses;
+        CacheStatsHandler(ResponseCache responses) { this.responses = responses; }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                send(exchange, 405, jsonError("Method Not Allowed"), "application/json; charset=utf-8");
+                return;
+            }
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            send(exchange, 200, responses.statsJson(), "application/json; charset=utf-8");
         }
     }
 
     private static Map<String, String> parseQuery(URI uri) {
+        return parseQuery(uri.getRawQuery());
+    }
+
+    static Map<String, String> parseQuery(String raw) {
         Map<String, String> map = new LinkedHashMap<>();
-        String raw = uri.getRawQuery();
+        for (Map.Entry<String, List<String>> e : parseQueryMulti(raw).entrySet()) {
+            List<String> values = e.getValue();
+            map.put(e.getKey(), values.get(values.size() - 1));
+        }
+        return map;
+    }
+
+    private static Map<String, List<String>> parseQueryMulti(String raw) {
+        Map<String, List<String>> map = new LinkedHashMap<>();
         if (raw == null || raw.isEmpty()) return map;
         String[] pairs = raw.split("&");
         for (String pair : pairs) {
@@ -87,7 +774,7 @@ public class WebServer {
             String val = idx >= 0 ? pair.substring(idx + 1) : "";
             key = urlDecode(key);
             val = urlDecode(val);
-            map.put(key, val);
+            map.computeIfAbsent(key, k -> new ArrayList<>()).add(val);
         }
         return map;
     }
@@ -96,7 +783,7 @@ public class WebServer {
         return URLDecoder.decode(s, StandardCharsets.UTF_8);
     }
 
-    private static boolean parseBool(String s) {
+    static boolean parseBool(String s) {
         if (s == null) return false;
         switch (s.toLowerCase()) {
             case "1": case "true": case "yes": case "on": return true;
@@ -104,62 +791,242 @@ public class WebServer {
         }
     }
 
-    private static String nullToEmpty(String s) { return s == null ? "" : s; }
+    static String nullToEmpty(String s) { return s == null ? "" : s; }
+
+    static String queryKey(SongCatalog catalog, String album, String artist, String titlePrefix,
+                           boolean sortDuration, int limit, int offset) {
+        return catalog.getPlaylistDir() + "\n" + catalog.isRecursive()
+                + "\n" + nullToEmpty(PlaylistService.normalize(album))
+                + "\n" + nullToEmpty(PlaylistService.normalize(artist))
+                + "\n" + nullToEmpty(PlaylistService.normalize(titlePrefix))
+                + "\n" + (sortDuration ? "duration" : "album")
+                + "\n" + limit + "\n" + offset;
+    }
+
+    /**
+     * Entity tag of a song listing: the cache epoch, the catalog version and a SHA-256 digest of the
+     * normalized query, so two different queries never share a tag.
+     */
+    static String songsEtag(String epoch, SongCatalog catalog, String query) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return "W/\"" + epoch + "-" + catalog.getVersion() + "-" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + "\"";
+    }
+
+    private static boolean matchesEtag(HttpExchange ex, String etag) {
+        return matchesEtag(ex.getRequestHeaders().get("If-None-Match"), etag);
+    }
+
+    static boolean matchesEtag(List<String> values, String etag) {
+        if (values == null) return false;
+        String opaque = etag.substring(2);
+        for (String value : values) {
+            for (String candidate : value.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*")) return true;
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals(opaque)) return true;
+            }
+        }
+        return false;
+    }
+
+    static int parsePageParam(String name, String s, int fallback) {
+        if (s == null || s.isBlank()) return fallback;
+        try {
+            int value = Integer.parseInt(s.trim());
+            if (value >= 0) return value;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid " + name + ": " + s);
+    }
+
+    static String encodeCursor(int offset) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(("o" + offset).getBytes(StandardCharsets.UTF_8));
+    }
+
+    static int decodeCursor(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(nullToEmpty(cursor).trim()), StandardCharsets.UTF_8);
+            if (decoded.startsWith("o")) {
+                int offset = Integer.parseInt(decoded.substring(1));
+                if (offset >= 0) return offset;
+            }
+        } catch (IllegalArgumentException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
 
     private static void send(HttpExchange ex, int status, String body, String contentType) throws IOException {
+        send(ex, status, body.getBytes(StandardCharsets.UTF_8), null, contentType);
+    }
+
+    private static void send(HttpExchange ex, int status, byte[] bytes, byte[] gzipped, String contentType) throws IOException {
         Headers h = ex.getResponseHeaders();
         h.set("Content-Type", contentType);
-        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= GZIP_THRESHOLD) {
+            h.set("Vary", "Accept-Encoding");
+            if (acceptsGzip(ex)) {
+                bytes = gzipped != null ? gzipped : gzip(bytes);
+                h.set("Content-Encoding", "gzip");
+            }
+        }
         ex.sendResponseHeaders(status, bytes.length);
         try (OutputStream os = ex.getResponseBody()) {
             os.write(bytes);
         }
     }
 
-    private static String jsonError(String message) {
-        String msg = message == null ? "" : message;
-        return "{\"error\":\"" + jsonEscape(msg) + "\"}";
-    }
-
-    private static String jsonEscape(String s) {
-        StringBuilder sb = new StringBuilder(s.length() + 16);
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            switch (c) {
-                case '"': sb.append("\\\""); break;
-                case '\\': sb.append("\\\\"); break;
-                case '\b': sb.append("\\b"); break;
-                case '\f': sb.append("\\f"); break;
-                case '\n': sb.append("\\n"); break;
-                case '\r': sb.append("\\r"); break;
-                case '\t': sb.append("\\t"); break;
-                default:
-                    if (c < 0x20) {
-                        sb.append(String.format("\\u%04x", (int)c));
-                    } else {
-                        sb.append(c);
+    private static boolean acceptsGzip(HttpExchange ex) {
+        return acceptsGzip(ex.getRequestHeaders().get("Accept-Encoding"));
+    }
+
+    static boolean acceptsGzip(List<String> values) {
+        if (values == null) return false;
+        for (String value : values) {
+            for (String coding : value.split(",")) {
+                String[] parts = coding.trim().split(";");
+                String name = parts[0].trim();
+                if (!"gzip".equalsIgnoreCase(name) && !"x-gzip".equalsIgnoreCase(name)) continue;
+                boolean rejected = false;
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=")) {
+                        try { rejected = Double.parseDouble(param.substring(2)) <= 0; } catch (NumberFormatException e) { rejected = true; }
                     }
+                }
+                return !rejected;
             }
         }
-        return sb.toString();
+        return false;
+    }
+
+    static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(buffer)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
     }
 
-    private static String toJson(List<SongEntry> songs) {
-        StringBuilder sb = new StringBuilder();
-        sb.append('[');
-        for (int i = 0; i < songs.size(); i++) {
-            SongEntry s = songs.get(i);
-            if (i > 0) sb.append(',');
-            sb.append('{')
-              .append("\"albumName\":\"").append(jsonEscape(s.getAlbumName())).append('\"')
-              .append(',').append("\"trackNumber\":" ).append(s.getTrackNumber())
-              .append(',').append("\"title\":\"").append(jsonEscape(s.getTitle())).append('\"')
-              .append(',').append("\"artist\":\"").append(jsonEscape(s.getArtist())).append('\"')
-              .append(',').append("\"duration\":\"").append(jsonEscape(s.getDuration())).append('\"')
-              .append('}');
+    /** Passes bytes through while keeping a copy of them, as long as the copy stays within {@code limit}. */
+    private static class CapturingOutputStream extends FilterOutputStream {
+        private final long limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        CapturingOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (copy != null) {
+                copy.write(b);
+                checkLimit();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                copy.write(b, off, len);
+                checkLimit();
+            }
+        }
+
+        byte[] captured() {
+            return copy == null ? null : copy.toByteArray();
+        }
+
+        private void checkLimit() {
+            if (copy.size() > limit) {
+                copy = null;
+            }
         }
-        sb.append(']');
-        return sb.toString();
+    }
+
+    /**
+     * Response body that holds back the first {@link #GZIP_THRESHOLD} bytes. Bodies that stay below the
+     * threshold are sent uncompressed with a fixed length; larger ones are streamed chunked, gzip-encoded
+     * when the client accepts it.
+     */
+    private static class CompressingResponseStream extends OutputStream {
+        private final HttpExchange exchange;
+        private final int status;
+        private final boolean gzip;
+        private byte[] pending = new byte[GZIP_THRESHOLD];
+        private int pendingLength;
+        private OutputStream out;
+
+        CompressingResponseStream(HttpExchange exchange, int status, boolean gzip) {
+            this.exchange = exchange;
+            this.status = status;
+            this.gzip = gzip;
+            exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out == null && pendingLength + len <= pending.length) {
+                System.arraycopy(b, off, pending, pendingLength, len);
+                pendingLength += len;
+                return;
+            }
+            if (out == null) {
+                startStreaming();
+            }
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out == null) {
+                exchange.sendResponseHeaders(status, pendingLength == 0 ? -1 : pendingLength);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(pending, 0, pendingLength);
+                }
+            } else {
+                out.close();
+            }
+        }
+
+        private void startStreaming() throws IOException {
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(status, 0);
+            out = gzip ? new GZIPOutputStream(exchange.getResponseBody(), 8192) : exchange.getResponseBody();
+            out.write(pending, 0, pendingLength);
+            pending = null;
+        }
+    }
+
+    static String jsonError(String message) {
+        String msg = message == null ? "" : message;
+        return "{\"error\":\"" + Json.escape(msg) + "\"}";
     }
 
     private static final String INDEX_HTML = "" +
@@ -176,15 +1043,23 @@ public class WebServer {
             "<button id=\"reload\">Reload</button>\n" +
             "</div>" +
             "<div class=\"row\">" +
-            "<label>Album: <input id=\"album\" type=\"text\"></label>\n" +
-            "<label>Artist: <input id=\"artist\" type=\"text\"></label>\n" +
+            "<label>Album: <input id=\"album\" type=\"text\" list=\"albums\"></label>\n" +
+            "<label>Artist: <input id=\"artist\" type=\"text\" list=\"artists\"></label>\n" +
+            "<datalist id=\"albums\"></datalist><datalist id=\"artists\"></datalist>\n" +
             "<label>Title prefix: <input id=\"titlePrefix\" type=\"text\"></label>\n" +
             "<label><input id=\"sortDuration\" type=\"checkbox\"> Sort by duration</label>\n" +
             "</div>" +
-            "<div class=\"row\" id=\"status\"></div>" +
+            "<div class=\"row\">" +
+            "<button id=\"prev\">Prev</button>\n" +
+            "<button id=\"next\">Next</button>\n" +
+            "<label>Page size: <select id=\"pageSize\"><option>50</option><option selected>100</option><option>500</option><option>1000</option></select></label>\n" +
+            "<span id=\"status\"></span>" +
+            "</div>" +
             "<table><thead><tr><th>Album</th><th>#</th><th>Title</th><th>Artist</th><th>Duration</th></tr></thead><tbody id=\"tbody\"></tbody></table>" +
             "<script>\n" +
-            "async function load(){\n" +
+            "let offset = 0, nextCursor = null, shownAlbums = new Set(), events = null, version = null;\n" +
+            "function pageSize(){ return parseInt(document.getElementById('pageSize').value, 10); }\n" +
+            "async function load(cursor){\n" +
             "  const q = new URLSearchParams();\n" +
             "  const playlist = document.getElementById('playlist').value; if(playlist) q.set('playlist', playlist);\n" +
             "  if(document.getElementById('recursive').checked) q.set('recursive','true');\n" +
@@ -192,18 +1067,62 @@ public class WebServer {
             "  const artist=document.getElementById('artist').value; if(artist) q.set('artist', artist);\n" +
             "  const titlePrefix=document.getElementById('titlePrefix').value; if(titlePrefix) q.set('titlePrefix', titlePrefix);\n" +
             "  if(document.getElementById('sortDuration').checked) q.set('sort','duration');\n" +
+            "  q.set('limit', pageSize());\n" +
+            "  if(cursor) q.set('cursor', cursor); else q.set('offset', offset);\n" +
             "  const res = await fetch('/api/songs?'+q.toString());\n" +
             "  const status = document.getElementById('status');\n" +
             "  if(!res.ok){ const t=await res.text(); status.textContent='Error: '+t; return; }\n" +
             "  const data = await res.json();\n" +
-            "  status.textContent = 'Total songs: '+data.length;\n" +
+            "  const total = parseInt(res.headers.get('X-Total-Count') || data.length, 10);\n" +
+            "  nextCursor = res.headers.get('X-Next-Cursor');\n" +
+            "  status.textContent = total === 0 ? 'Total songs: 0' : 'Songs '+(offset+1)+'-'+(offset+data.length)+' of '+total;\n" +
+            "  document.getElementById('prev').disabled = offset === 0;\n" +
+            "  document.getElementById('next').disabled = !nextCursor;\n" +
+            "  shownAlbums = new Set(data.map(s => s.albumName));\n" +
             "  const tbody = document.getElementById('tbody'); tbody.innerHTML='';\n" +
             "  for(const s of data){ const tr=document.createElement('tr');\n" +
             "    tr.innerHTML = `<td>${s.albumName}</td><td>${s.trackNumber}</td><td>${s.title}</td><td>${s.artist}</td><td>${s.duration}</td>`;\n" +
             "    tbody.appendChild(tr); }\n" +
             "}\n" +
-            "document.getElementById('reload').addEventListener('click', load);\n" +
+            "function norm(id){ return document.getElementById(id).value.trim().toLowerCase(); }\n" +
+            "function affects(d){\n" +
+            "  if(shownAlbums.has(d.album)) return true;\n" +
+            "  const album=norm('album'), artist=norm('artist'), titlePrefix=norm('titlePrefix');\n" +
+            "  return d.songs.some(s => s.albumName.toLowerCase().includes(album) && s.artist.toLowerCase().includes(artist) && s.title.toLowerCase().startsWith(titlePrefix));\n" +
+            "}\n" +
+            "function playlistQuery(){\n" +
+            "  const q = new URLSearchParams();\n" +
+            "  const playlist = document.getElementById('playlist').value; if(playlist) q.set('playlist', playlist);\n" +
+            "  if(document.getElementById('recursive').checked) q.set('recursive','true');\n" +
+            "  return q;\n" +
+            "}\n" +
+            "async function loadFacets(){\n" +
+            "  const res = await fetch('/api/facets?'+playlistQuery().toString());\n" +
+            "  if(!res.ok) return;\n" +
+            "  const data = await res.json();\n" +
+            "  for(const [id, list] of [['albums', data.albums], ['artists', data.artists]]){\n" +
+            "    const el = document.getElementById(id); el.innerHTML='';\n" +
+            "    for(const f of list){ const o=document.createElement('option'); o.value=f.name; o.label=f.name+' ('+f.songs+')'; el.appendChild(o); } }\n" +
+            "}\n" +
+            "function subscribe(){\n" +
+            "  if(events) events.close();\n" +
+            "  version = null;\n" +
+            "  loadFacets();\n" +
+            "  events = new EventSource('/api/songs/events?'+playlistQuery().toString());\n" +
+            "  events.addEventListener('ready', e => { const v = JSON.parse(e.data).version; if(version !== null && v !== version) load(); version = v; });\n" +
+            "  events.addEventListener('album', e => { const d = JSON.parse(e.data); version = d.version; loadFacets(); if(affects(d)) load(); });\n" +
+            "  events.addEventListener('reset', () => load());\n" +
+            "}\n" +
+            "function reset(){ offset = 0; load(); }\n" +
+            "document.getElementById('reload').addEventListener('click', () => { subscribe(); reset(); });\n" +
+            "document.getElementById('pageSize').addEventListener('change', reset);\n" +
+            "document.getElementById('prev').addEventListener('click', () => { offset = Math.max(0, offset - pageSize()); load(); });\n" +
+            "document.getElementById('next').addEventListener('click', () => { if(nextCursor){ offset += pageSize(); load(nextCursor); } });\n" +
+            "subscribe();\n" +
             "load();\n" +
             "</script>" +
             "</body></html>";
+
+    static final byte[] INDEX_HTML_BYTES = INDEX_HTML.getBytes(StandardCharsets.UTF_8);
+    static final byte[] INDEX_HTML_GZIP = gzip(INDEX_HTML_BYTES);
 }
@@ -0,0 +1,105 @@
+package com.example.playlist.model;
+
+import java.util.Arrays;
+
+/**
+ * Running count, sum, min, max and percentiles of song durations in seconds. Percentiles come from
+ * a log-linear histogram in the style of HdrHistogram: values below 128 are counted exactly and
+ * larger values fall into 64 sub-buckets per power of two, so a reported percentile is at most
+ * 1/64 above the true value. Songs without a parsable duration are counted separately.
+ */
+public class DurationStats {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+
+    private int[] counts = new int[0];
+    private long count;
+    private long unknown;
+    private long sum;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+
+    public void record(int durationSeconds) {
+        if (durationSeconds < 0) {
+            unknown++;
+            return;
+        }
+        int index = bucketIndex(durationSeconds);
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, Math.min(counts.length * 2, bucketIndex(Integer.MAX_VALUE) + 1)));
+        }
+        counts[index]++;
+        count++;
+        sum += durationSeconds;
+        if (durationSeconds < min) {
+            min = durationSeconds;
+        }
+        if (durationSeconds > max) {
+            max = durationSeconds;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getUnknownCount() {
+        return unknown;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    /** Shortest duration, or -1 if no duration was recorded. */
+    public int getMin() {
+        return count == 0 ? -1 : min;
+    }
+
+    /** Longest duration, or -1 if no duration was recorded. */
+    public int getMax() {
+        return count == 0 ? -1 : max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Returns the smallest recorded duration such that at least {@code percentile} percent of the
+     * recorded durations are not longer, within the histogram's precision; -1 if nothing was recorded.
+     */
+    public int getPercentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        double clamped = Math.min(100, Math.max(0, percentile));
+        long target = Math.max(1, (long) Math.ceil(clamped / 100 * count));
+        long seen = 0;
+        for (int index = 0; index < counts.length; index++) {
+            seen += counts[index];
+            if (seen >= target) {
+                return Math.max(min, Math.min(max, highestInBucket(index)));
+            }
+        }
+        return max;
+    }
+
+    private static int bucketIndex(int value) {
+        if (value < LINEAR_LIMIT) {
+            return value;
+        }
+        int shift = 31 - Integer.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (value >>> shift);
+    }
+
+    private static int highestInBucket(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        int sub = index - (shift << SUB_BUCKET_BITS);
+        return (int) Math.min(Integer.MAX_VALUE, (((long) sub + 1) << shift) - 1);
+    }
+}
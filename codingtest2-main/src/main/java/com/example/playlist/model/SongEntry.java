@@ -1,20 +1,55 @@
 package com.example.playlist.model;
 
+import java.util.Comparator;
+import java.util.Locale;
+
 public class SongEntry {
+    /**
+     * Orders sort keys built by {@link #sortKey(String)} the same way
+     * {@link String#CASE_INSENSITIVE_ORDER} orders the original strings.
+     */
+    public static final Comparator<String> SORT_KEY_ORDER = SongEntry::compareSortKeys;
+
     private final String albumName;
     private final int trackNumber;
     private final String title;
     private final String artist;
     private final String duration;
     private final int durationSeconds;
+    private final String albumSearchKey;
+    private final String artistSearchKey;
+    private final String titleSearchKey;
+    private final String albumSortKey;
+    private final int albumId;
+    private final int artistId;
 
     public SongEntry(String albumName, int trackNumber, String title, String artist, String duration, int durationSeconds) {
+        this(albumName, searchKey(albumName), sortKey(albumName), trackNumber, title, artist, duration, durationSeconds);
+    }
+
+    public SongEntry(String albumName, String albumSearchKey, String albumSortKey, int trackNumber,
+                     String title, String artist, String duration, int durationSeconds) {
+        this(-1, albumName, albumSearchKey, albumSortKey, trackNumber, title, -1, artist, searchKey(artist), duration, durationSeconds);
+    }
+
+    /**
+     * Creates a song whose album and artist come from a shared dictionary; {@code albumId} and
+     * {@code artistId} identify the values within that dictionary, or are -1 when there is none.
+     */
+    public SongEntry(int albumId, String albumName, String albumSearchKey, String albumSortKey, int trackNumber,
+                     String title, int artistId, String artist, String artistSearchKey, String duration, int durationSeconds) {
         this.albumName = albumName;
         this.trackNumber = trackNumber;
         this.title = title;
         this.artist = artist;
         this.duration = duration;
         this.durationSeconds = durationSeconds;
+        this.albumSearchKey = albumSearchKey;
+        this.artistSearchKey = artistSearchKey;
+        this.titleSearchKey = searchKey(title);
+        this.albumSortKey = albumSortKey;
+        this.albumId = albumId;
+        this.artistId = artistId;
     }
 
     public String getAlbumName() {
@@ -40,4 +75,92 @@ public class SongEntry {
     public int getDurationSeconds() {
         return durationSeconds;
     }
+
+    public String getAlbumSearchKey() {
+        return albumSearchKey;
+    }
+
+    public String getArtistSearchKey() {
+        return artistSearchKey;
+    }
+
+    public String getTitleSearchKey() {
+        return titleSearchKey;
+    }
+
+    public String getAlbumSortKey() {
+        return albumSortKey;
+    }
+
+    /** Id of the album name in the loading service's dictionary, or -1 if the song was not loaded through one. */
+    public int getAlbumId() {
+        return albumId;
+    }
+
+    /** Id of the artist in the loading service's dictionary, or -1 if the song was not loaded through one. */
+    public int getArtistId() {
+        return artistId;
+    }
+
+    /** Trimmed, lower-cased form used by the filters, or null when nothing is left after trimming. */
+    public static String searchKey(String text) {
+        if (text == null) {
+            return null;
+        }
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        return trimmed.toLowerCase(Locale.ROOT);
+    }
+
+    /** Case-folded form whose {@link #SORT_KEY_ORDER} matches {@link String#CASE_INSENSITIVE_ORDER}. */
+    public static String sortKey(String text) {
+        if (text == null) {
+            return null;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int cp = text.codePointAt(i);
+            if (fold(cp) != cp) {
+                break;
+            }
+            i += Character.charCount(cp);
+        }
+        if (i == length) {
+            return text;
+        }
+        StringBuilder folded = new StringBuilder(length).append(text, 0, i);
+        while (i < length) {
+            int cp = text.codePointAt(i);
+            int f = fold(cp);
+            if (Character.charCount(f) == Character.charCount(cp)) {
+                folded.appendCodePoint(f);
+            } else {
+                folded.appendCodePoint(cp);
+            }
+            i += Character.charCount(cp);
+        }
+        return folded.toString();
+    }
+
+    private static int fold(int cp) {
+        return Character.toLowerCase(Character.toUpperCase(cp));
+    }
+
+    private static int compareSortKeys(String a, String b) {
+        int limit = Math.min(a.length(), b.length());
+        for (int i = 0; i < limit; i++) {
+            char c1 = a.charAt(i);
+            char c2 = b.charAt(i);
+            if (c1 != c2) {
+                if (Character.isSurrogate(c1) || Character.isSurrogate(c2)) {
+                    return Character.codePointAt(a, i) - Character.codePointAt(b, i);
+                }
+                return c1 - c2;
+            }
+        }
+        return a.length() - b.length();
+    }
 }